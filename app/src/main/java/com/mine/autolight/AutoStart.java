@@ -3,8 +3,8 @@ package com.mine.autolight;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class AutoStart extends BroadcastReceiver {
@@ -14,6 +14,7 @@ public class AutoStart extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         if (intent == null) return;
+        long receivedAt = SystemClock.elapsedRealtime();
 
         final String action = intent.getAction();
         if (!Intent.ACTION_BOOT_COMPLETED.equals(action)
@@ -21,8 +22,8 @@ public class AutoStart extends BroadcastReceiver {
             return;
         }
 
-        SharedPreferences prefs = context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE);
-        boolean isEnabled = prefs.getBoolean(Constants.PREF_ENABLED_KEY, true);
+        // Maps the settings file once; the service started below reuses the same image
+        boolean isEnabled = new MySettings(context).serviceEnabled;
 
         if (!isEnabled) {
             Log.d(TAG, "Boot detected, but service is disabled by user. Doing nothing.");
@@ -31,6 +32,7 @@ public class AutoStart extends BroadcastReceiver {
 
         Log.d(TAG, "Boot completed detected and service is enabled. Starting LightService...");
         Intent serviceIntent = new Intent(context, LightService.class);
+        serviceIntent.putExtra(Constants.EXTRA_BOOT_RECEIVED_AT, receivedAt);
 
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -0,0 +1,128 @@
+package com.mine.autolight;
+
+import com.mine.autolight.core.BrightnessSink;
+import com.mine.autolight.core.Clock;
+import com.mine.autolight.core.Scheduler;
+import com.mine.autolight.core.Tracer;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces writes to Settings.System.SCREEN_BRIGHTNESS.
+ * Each putInt is a cross-process write that wakes every brightness observer, so values
+ * equal to the last committed one are dropped and bursts are limited to one write per
+ * {@code minIntervalMs}; the latest value of a burst is always committed. The putInt
+ * itself, the timer and the clocks come from LightControl, so none of this needs a device.
+ */
+final class BrightnessWriter {
+
+    private static final int NONE = -1;
+
+    interface Listener {
+        /** {@code latencyNanos} runs from the decision to putInt returning, including rate-limit delay. */
+        void onCommit(int value, long time, long latencyNanos);
+    }
+
+    private final BrightnessSink output;
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final LongSupplier nanoTime;
+    private final Runnable flushPending = this::flush;
+    private Listener listener;
+    private Tracer tracer;
+
+    private long minIntervalMs;
+    private int lastCommitted = NONE;
+    private long lastCommitTime = 0;
+    private int pending = NONE;
+    private long pendingDecidedAt = 0;
+
+    // Written on the worker thread only, read from the service for status
+    private volatile long writesIssued = 0;
+    private volatile long writesSuppressed = 0;
+
+    /** {@code clock} is in ms, {@code nanoTime} the same time base in ns for the commit latency. */
+    BrightnessWriter(BrightnessSink output, Scheduler scheduler, Clock clock, LongSupplier nanoTime, long minIntervalMs) {
+        this.output = output;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.nanoTime = nanoTime;
+        this.minIntervalMs = minIntervalMs;
+    }
+
+    /** {@code decidedAtNanos} is when the pipeline chose the value, on the {@code nanoTime} clock. */
+    void write(int value, long decidedAtNanos) {
+        if (pending != NONE) {
+            // A write is already scheduled; the newer value replaces it
+            pending = value;
+            pendingDecidedAt = decidedAtNanos;
+            writesSuppressed++;
+            return;
+        }
+        if (value == lastCommitted) {
+            writesSuppressed++;
+            return;
+        }
+        long now = clock.now();
+        long wait = lastCommitTime + minIntervalMs - now;
+        if (lastCommitted == NONE || wait <= 0) {
+            commit(value, now, decidedAtNanos);
+        } else {
+            pending = value;
+            pendingDecidedAt = decidedAtNanos;
+            scheduler.postDelayed(flushPending, wait);
+        }
+    }
+
+    /** Commits a value still waiting out the interval right away; for shutdown, when the timer will not run. */
+    void flushNow() {
+        scheduler.cancel(flushPending);
+        flush();
+    }
+
+    /** Forgets the last committed value, e.g. when the user may have moved the slider meanwhile. */
+    void invalidate() {
+        lastCommitted = NONE;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Traces each putInt and the applied value; null turns it off. */
+    void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    void setMinIntervalMs(long minIntervalMs) {
+        this.minIntervalMs = minIntervalMs;
+    }
+
+    long getWritesIssued() { return writesIssued; }
+    long getWritesSuppressed() { return writesSuppressed; }
+
+    private void flush() {
+        int value = pending;
+        pending = NONE;
+        if (value == NONE) return;
+        if (value == lastCommitted) {
+            writesSuppressed++;
+            return;
+        }
+        commit(value, clock.now(), pendingDecidedAt);
+    }
+
+    private void commit(int value, long now, long decidedAtNanos) {
+        if (tracer != null) tracer.beginSection("AutoLight:write");
+        output.write(value);
+        if (tracer != null) {
+            tracer.endSection();
+            tracer.counter("AutoLight brightness", value);
+        }
+        long latency = nanoTime.getAsLong() - decidedAtNanos;
+        lastCommitted = value;
+        lastCommitTime = now;
+        writesIssued++;
+        if (listener != null) listener.onCommit(value, now, latency);
+    }
+}
@@ -0,0 +1,47 @@
+package com.mine.autolight;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+/**
+ * Brightness range the device reports for Settings.System.SCREEN_BRIGHTNESS.
+ * Resolving it means reflective resource lookups, so it is done once at service start
+ * and again only on configuration changes.
+ */
+final class DisplayBrightnessProfile {
+
+    final int minimum;
+    final int maximum;
+    final int defaultValue;
+
+    private DisplayBrightnessProfile(int minimum, int maximum, int defaultValue) {
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.defaultValue = defaultValue;
+    }
+
+    static DisplayBrightnessProfile resolve(Context context) {
+        Resources res = context.getResources();
+        int max = systemInteger(res, "config_screenBrightnessSettingMaximum", 255);
+        int min = systemInteger(res, "config_screenBrightnessSettingMinimum", 1);
+        int def = systemInteger(res, "config_screenBrightnessSettingDefault", max / 2);
+        return new DisplayBrightnessProfile(min, max, def);
+    }
+
+    boolean sameRange(DisplayBrightnessProfile other) {
+        return other != null && minimum == other.minimum && maximum == other.maximum
+                && defaultValue == other.defaultValue;
+    }
+
+    String describe() {
+        return minimum + ".." + maximum + " (default " + defaultValue + ")";
+    }
+
+    private static int systemInteger(Resources res, String name, int fallback) {
+        try {
+            int resId = res.getIdentifier(name, "integer", "android");
+            if (resId > 0) return res.getInteger(resId);
+        } catch (Exception ignored) { }
+        return fallback;
+    }
+}
@@ -7,54 +7,121 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Handler;
-import android.os.Looper;
+import android.os.HandlerThread;
 import android.os.SystemClock;
 import android.provider.Settings;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-
-public class LightControl implements SensorEventListener {
+import java.io.File;
+import java.util.Arrays;
+
+import com.mine.autolight.core.LatencyHistogram;
+import com.mine.autolight.core.LuxPipeline;
+import com.mine.autolight.core.LuxTraceRecorder;
+import com.mine.autolight.core.RateCounter;
+import com.mine.autolight.core.Scheduler;
+import com.mine.autolight.core.Tracer;
+import com.mine.autolight.core.SensorSource;
+
+/**
+ * Android side of the lux pipeline: owns the worker thread, the light sensor, the
+ * brightness writer and the timers, and feeds {@link LuxPipeline}.
+ */
+public class LightControl implements SensorEventListener, SensorSource, Scheduler {
+
+    /** Receives every processed sensor event on the worker thread; must return quickly. */
+    public interface LiveListener {
+        void onLiveSample(long timeMs, float rawLux, float filteredLux, int brightness);
+    }
 
     private final SensorManager sMgr;
     private final Sensor lightSensor;
     private final MySettings sett;
     private final ContentResolver cResolver;
-    private final Context context;
-
-    // Used only to schedule stopListening after "pause" in non-always modes
-    private final Handler delayer = new Handler(Looper.getMainLooper());
-    private final long pause = 2500;
-
-    private boolean onListen = false;
-    private boolean landscape = false;
-    private boolean needsImmediateUpdate = false;
-
-    private float lux = 0;
-    private int tempBrightness = 0;
-
-    // Window smoothing settings
-    private final ArrayDeque<SensorReading> buffer = new ArrayDeque<>();
-    private float lastAppliedLux = -1f;
-    private float rollingSum = 0f;
-
-    private MedianFilter medianFilter; 
-    private long quickReactTriggerTime = 0;
-    private long quickReactDebounceMs; 
-    private boolean isQuickReactPending = false;
-
-    LightControl(Context context) {
-        this.context = context;
+    private final BrightnessWriter writer;
+    private final LuxPipeline pipeline;
+
+    // Sensor delivery, filtering, timers and brightness writes all run on this thread;
+    // public commands are posted to it so nothing here touches the main looper
+    private final HandlerThread worker;
+    private final Handler handler;
+
+    // In batched mode one sensor FIFO flush arrives as a run of callbacks; the pipeline
+    // holds their decisions back until this runs after the last of them
+    private final Runnable endBatch = this::endBatch;
+
+    // Cost counters, updated and read on the worker thread only
+    private final LatencyHistogram eventToDecision = new LatencyHistogram();
+    private final LatencyHistogram decisionToWrite = new LatencyHistogram();
+    private final RateCounter eventsPerSecond = new RateCounter(1000, 61);
+    private final RateCounter writesPerMinute = new RateCounter(60000, 61);
+
+    // Screen-on broadcast to first brightness write
+    private long screenOnAt = 0;
+    private volatile long unlockLatencyLast = -1;
+    private volatile long unlockLatencyMax = 0;
+    private volatile long unlockLatencySum = 0;
+    private volatile int unlockLatencyCount = 0;
+
+    // Startup phases, shared with the service; firstSample guards the per-event mark
+    private final StartupTimeline timeline;
+    private boolean firstSample = true;
+    private final SettingsStore settingsStore;
+
+    private volatile DisplayBrightnessProfile displayProfile;
+
+    // Copy-on-write so the event path reads it without locking; empty when nobody listens
+    private static final LiveListener[] NO_LISTENERS = new LiveListener[0];
+    private volatile LiveListener[] liveListeners = NO_LISTENERS;
+
+    // Event trace for offline replay, only while enabled in the settings
+    private static final long TRACE_FILE_BYTES = 1024 * 1024;
+    private static final int TRACE_FILES = 3;
+    private final File traceDir;
+    private LuxTraceRecorder recorder;
+
+    // android.os.Trace output, null unless enabled in the settings
+    private Tracer tracer;
+
+    LightControl(Context context, DisplayBrightnessProfile displayProfile, StartupTimeline timeline) {
+        this.displayProfile = displayProfile;
+        this.timeline = timeline;
         sett = new MySettings(context);
+        settingsStore = SettingsStore.get(context);
         cResolver = context.getContentResolver();
+        traceDir = new File(context.getFilesDir(), "traces");
+
+        worker = new HandlerThread("AutoLightWorker");
+        worker.start();
+        handler = new Handler(worker.getLooper());
+        writer = new BrightnessWriter(this::putBrightness, this, SystemClock::elapsedRealtime,
+                SystemClock::elapsedRealtimeNanos, sett.minWriteIntervalMs);
+        writer.setListener(this::onBrightnessCommitted);
         sMgr = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
         lightSensor = sMgr.getDefaultSensor(Sensor.TYPE_LIGHT);
-        
-        medianFilter = new MedianFilter(sett.getMedianWindowMs());
-        quickReactDebounceMs = sett.getDebounceMs();
+
+        pipeline = new LuxPipeline(SystemClock::elapsedRealtime, this, this, this::writeBrightness,
+                sett.snapshot(), displayProfile.maximum);
+        handler.post(() -> {
+            updateRecorder();
+            updateTracer();
+        });
+    }
+
+    private void updateTracer() {
+        tracer = sett.systemTracing ? new SystemTracer() : null;
+        pipeline.setTracer(tracer);
+        writer.setTracer(tracer);
+    }
+
+    private void updateRecorder() {
+        if (sett.traceRecording && recorder == null) {
+            recorder = new LuxTraceRecorder(traceDir, "lux", TRACE_FILE_BYTES, TRACE_FILES);
+            pipeline.setRecorder(recorder);
+        } else if (!sett.traceRecording && recorder != null) {
+            pipeline.setRecorder(null);
+            recorder.close();
+            recorder = null;
+        }
     }
 
     @Override
@@ -63,201 +130,222 @@ public class LightControl implements SensorEventListener {
     @Override
     public void onSensorChanged(SensorEvent event) {
         if (event.sensor.getType() != Sensor.TYPE_LIGHT) return;
+        long received = SystemClock.elapsedRealtimeNanos();
+        if (firstSample) {
+            firstSample = false;
+            timeline.mark(StartupTimeline.FIRST_SAMPLE, received / 1000000L);
+        }
+        if (tracer != null) tracer.beginSection("AutoLight:event");
+
+        // Batched samples are delivered late, so the event's own timestamp is the only correct time
+        boolean batched = pipeline.isBatched();
+        long now = batched ? event.timestamp / 1000000L : SystemClock.elapsedRealtime();
+        if (batched && !pipeline.isBatchOpen()) {
+            pipeline.beginBatch();
+            handler.post(endBatch);
+        }
+        pipeline.onSample(event.values[0], now);
+        if (tracer != null) tracer.endSection();
 
-        float rawLux = event.values[0];
-        long now = SystemClock.elapsedRealtime();
+        eventToDecision.record(SystemClock.elapsedRealtimeNanos() - received);
+        eventsPerSecond.mark(received / 1000000L);
 
-        // If light goes dark (raw lux < 2.0), reset filters to allow instant dimming.
-        float filteredLux;
-        if (rawLux < 2.0f) {
-            medianFilter.clear();
-            buffer.clear();
-            rollingSum = 0f;
-            filteredLux = rawLux;
-        } else {
-            filteredLux = medianFilter.filter(rawLux, now);
+        LiveListener[] listeners = liveListeners;
+        for (LiveListener l : listeners) {
+            l.onLiveSample(now, event.values[0], pipeline.getFilteredLux(), pipeline.getSetBrightness());
         }
+    }
 
-        if (lastAppliedLux != -1f && !needsImmediateUpdate) {
-            float gap = Math.abs(filteredLux - lastAppliedLux);
-            float percentChange = (lastAppliedLux == 0f) ? 100f : (gap / lastAppliedLux) * 100f;
-            
-            // Debounced Quick React processing
-            if (gap > sett.quickReactLux && percentChange > sett.quickReactPercent) {
-                if (!isQuickReactPending) {
-                    quickReactTriggerTime = now;
-                    isQuickReactPending = true;
-                } else if (now - quickReactTriggerTime >= quickReactDebounceMs) {
-                    // If the massive change has sustained, clear smoothing buffer and snap immediately.
-                    buffer.clear();
-                    buffer.addLast(new SensorReading(now, filteredLux));
-                    rollingSum = filteredLux;
-                    applyAndRecord(filteredLux);
-                    isQuickReactPending = false;
-                    return;
-                }
-            } else {
-                isQuickReactPending = false;
-            }
-        } else {
-            isQuickReactPending = false;
-        }
+    public synchronized void addLiveListener(LiveListener listener) {
+        LiveListener[] current = liveListeners;
+        for (LiveListener l : current) if (l == listener) return;
+        LiveListener[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = listener;
+        liveListeners = next;
+    }
 
-        // Standard Window Smoothing using the Filtered Lux
-        buffer.addLast(new SensorReading(now, filteredLux));
-        rollingSum += filteredLux;
+    public synchronized void removeLiveListener(LiveListener listener) {
+        LiveListener[] current = liveListeners;
+        int n = 0;
+        LiveListener[] next = new LiveListener[current.length];
+        for (LiveListener l : current) if (l != listener) next[n++] = l;
+        liveListeners = (n == 0) ? NO_LISTENERS : Arrays.copyOf(next, n);
+    }
 
-        while (!buffer.isEmpty() && (now - buffer.peekFirst().time) > sett.windowMs) {
-            SensorReading old = buffer.removeFirst();
-            rollingSum -= old.value;
-        }
+    // Scheduler
 
-        if (needsImmediateUpdate || sett.mode == Constants.WORK_MODE_UNLOCK) {
-            lux = filteredLux;
-            setBrightness((int) lux);
-            needsImmediateUpdate = false;
-            if (sett.mode == Constants.WORK_MODE_UNLOCK) stopListening();
-            return;
-        }
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        handler.postDelayed(task, delayMs);
+    }
 
-        processSmoothedLux();
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
     }
 
-    private void processSmoothedLux() {
-        if (buffer.isEmpty()) return;
-        float averageLux = rollingSum / buffer.size();
-        float diff = Math.abs(averageLux - lastAppliedLux);
+    // SensorSource
+
+    @Override
+    public boolean isAvailable() { return lightSensor != null; }
+
+    @Override
+    public boolean hasFifo() { return lightSensor.getFifoMaxEventCount() > 0; }
 
-        if (lastAppliedLux == -1f || diff > (lastAppliedLux * sett.hysteresisThreshold) || diff > sett.absoluteThreshold) {
-            lux = averageLux;
-            applyAndRecord(lux);
+    @Override
+    public void register(int samplingPeriodUs, int maxReportLatencyUs) {
+        if (maxReportLatencyUs > 0) {
+            sMgr.registerListener(this, lightSensor, samplingPeriodUs, maxReportLatencyUs, handler);
+        } else {
+            sMgr.registerListener(this, lightSensor, samplingPeriodUs, handler);
         }
+        timeline.mark(StartupTimeline.SENSOR_REGISTERED, SystemClock.elapsedRealtime());
     }
 
-    private void applyAndRecord(float luxVal) {
-        setBrightness((int) luxVal);
-        lastAppliedLux = luxVal;
+    @Override
+    public void unregister() {
+        sMgr.unregisterListener(this);
     }
 
-    public void prepareForScreenOn() {
-        needsImmediateUpdate = true;
-        lastAppliedLux = -1f;
-        buffer.clear();
-        rollingSum = 0f;
-        medianFilter.clear();
-        isQuickReactPending = false;
+    private void writeBrightness(int value) {
+        writer.write(value, SystemClock.elapsedRealtimeNanos());
     }
 
-    private void scheduleSuspend() {
-        if (sett.mode == Constants.WORK_MODE_ALWAYS) return;
-        delayer.removeCallbacksAndMessages(null);
-        delayer.postDelayed(this::stopListening, pause);
+    private void putBrightness(int value) {
+        try { Settings.System.putInt(cResolver, Settings.System.SCREEN_BRIGHTNESS, value); } catch (Exception ignored) { }
     }
 
-    public void startListening() {
-        boolean shouldActivate = (sett.mode == Constants.WORK_MODE_ALWAYS || sett.mode == Constants.WORK_MODE_UNLOCK || (sett.mode == Constants.WORK_MODE_LANDSCAPE && landscape) || (sett.mode == Constants.WORK_MODE_PORTRAIT && !landscape) || needsImmediateUpdate);
-
-        if (shouldActivate) {
-            delayer.removeCallbacksAndMessages(null);
-            if (!onListen && lightSensor != null) {
-                sMgr.registerListener(this, lightSensor, SensorManager.SENSOR_DELAY_NORMAL);
-                onListen = true;
-            }
-            scheduleSuspend();
-        } else {
-            stopListening();
-        }
+    private void endBatch() {
+        pipeline.endBatch();
     }
 
-    public void stopListening() {
-        if (onListen) {
-            sMgr.unregisterListener(this);
-            onListen = false;
-        }
+    private void onBrightnessCommitted(int value, long time, long latencyNanos) {
+        decisionToWrite.record(latencyNanos);
+        writesPerMinute.mark(time);
+        timeline.mark(StartupTimeline.FIRST_BRIGHTNESS, time);
+
+        if (screenOnAt == 0) return;
+        long latency = time - screenOnAt;
+        screenOnAt = 0;
+        unlockLatencyLast = latency;
+        unlockLatencyMax = Math.max(unlockLatencyMax, latency);
+        unlockLatencySum += latency;
+        unlockLatencyCount++;
     }
 
-    private void setBrightness(int luxValue) {
-        int brightnessPercent;
-        if (luxValue <= sett.l1) brightnessPercent = sett.b1;
-        else if (luxValue >= sett.l4) brightnessPercent = sett.b4;
-        else {
-            float x1, y1, x2, y2;
-            if (luxValue <= sett.l2) { x1 = sett.l1; x2 = sett.l2; y1 = sett.b1; y2 = sett.b2; }
-            else if (luxValue <= sett.l3) { x1 = sett.l2; x2 = sett.l3; y1 = sett.b2; y2 = sett.b3; }
-            else { x1 = sett.l3; x2 = sett.l4; y1 = sett.b3; y2 = sett.b4; }
-            double lx = Math.log10((double) luxValue + 1.0);
-            double lx1 = Math.log10((double) x1 + 1.0);
-            double lx2 = Math.log10((double) x2 + 1.0);
-            double t = (lx2 - lx1 == 0) ? 0 : (lx - lx1) / (lx2 - lx1);
-            t = Math.max(0.0, Math.min(1.0, t));
-            brightnessPercent = (int) Math.round(y1 + (y2 - y1) * t);
-        }
-
-        tempBrightness = brightnessPercent;
+    /** Runs {@code task} on the worker thread, after any command posted before it. */
+    public void post(Runnable task) {
+        handler.post(task);
+    }
 
-        // Force minimum if at the lowest setting
-        if (brightnessPercent <= 1) {
-            setSystemBrightness(1);
-            return;
-        }
+    public void prepareForScreenOn() {
+        handler.post(() -> {
+            pipeline.resetForScreenOn();
+            writer.invalidate();
+        });
+    }
 
-        // Dynamically fetch the system's maximum brightness value
-        int systemMax = 255;
-        int resId = context.getResources().getIdentifier("config_screenBrightnessSettingMaximum", "integer", "android");
-        if (resId > 0) {
-            systemMax = context.getResources().getInteger(resId);
-        }
+    public void startListening() {
+        handler.post(pipeline::start);
+    }
 
-        int finalSystemValue = Math.max(1, Math.min(systemMax, Math.round((brightnessPercent / 100.0f) * systemMax)));
-        setSystemBrightness(finalSystemValue);
+    public void stopListening() {
+        handler.post(pipeline::stop);
     }
 
-    private void setSystemBrightness(int value) {
-        try { Settings.System.putInt(cResolver, Settings.System.SCREEN_BRIGHTNESS, value); } catch (Exception ignored) { }
+    /** Stops listening and ends the worker thread; the instance is unusable afterwards. */
+    public void shutdown() {
+        handler.post(() -> {
+            pipeline.shutdown();
+            // quitSafely drops delayed messages, the writer's rate-limit flush among them
+            writer.flushNow();
+            if (recorder != null) recorder.close();
+        });
+        worker.quitSafely();
     }
-    
+
+    /**
+     * Re-reads the settings and hands them to the pipeline, which switches over on its next
+     * event without re-registering the sensor or dropping its windows.
+     */
     public void reconfigure() {
-        stopListening();
-        sett.load();
-        medianFilter = new MedianFilter(sett.getMedianWindowMs());
-        quickReactDebounceMs = sett.getDebounceMs();
-        startListening();
+        handler.post(() -> {
+            sett.load();
+            pipeline.publish(sett.snapshot());
+            writer.setMinIntervalMs(sett.minWriteIntervalMs);
+            updateRecorder();
+            updateTracer();
+            // Not listening means no next event; start() takes the new settings and decides.
+            // While listening, the next event or the suspend timer does
+            if (!pipeline.isListening()) pipeline.start();
+        });
     }
 
-    public void setLandscape(boolean land) { this.landscape = land; }
+    public void setDisplayProfile(DisplayBrightnessProfile profile) {
+        handler.post(() -> {
+            if (profile.sameRange(displayProfile)) return;
+            displayProfile = profile;
+            pipeline.setDisplayMaximum(profile.maximum);
+        });
+    }
+
+    public void setLandscape(boolean land) {
+        handler.post(() -> pipeline.setLandscape(land));
+    }
 
     public void onScreenUnlock() {
-        try { Settings.System.putInt(cResolver, Settings.System.SCREEN_BRIGHTNESS_MODE, Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL); } catch (Exception ignored) { }
-        needsImmediateUpdate = true;
-        startListening();
+        handler.post(() -> {
+            try { Settings.System.putInt(cResolver, Settings.System.SCREEN_BRIGHTNESS_MODE, Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL); } catch (Exception ignored) { }
+            pipeline.beginBurst();
+            pipeline.start();
+        });
+    }
+
+    /** Marks when the screen-on broadcast arrived; the next brightness write closes the measurement. */
+    public void markScreenOn(long elapsedRealtime) {
+        handler.post(() -> screenOnAt = elapsedRealtime);
     }
 
-    public int getLastSensorValue() { return (int) lux; }
-    public int getSetBrightness() { return tempBrightness; }
+    public int getLastSensorValue() { return pipeline.getLastSensorValue(); }
+    public int getSetBrightness() { return pipeline.getSetBrightness(); }
+    public DisplayBrightnessProfile getDisplayProfile() { return displayProfile; }
+    public long getWritesIssued() { return writer.getWritesIssued(); }
+    public long getWritesSuppressed() { return writer.getWritesSuppressed(); }
 
-    private static class SensorReading {
-        final long time; final float value;
-        SensorReading(long time, float value) { this.time = time; this.value = value; }
+    public String describeUnlockLatency() {
+        int n = unlockLatencyCount;
+        if (n == 0) return "n/a";
+        return unlockLatencyLast + " ms (avg " + (unlockLatencySum / n) + ", max " + unlockLatencyMax + ", n=" + n + ")";
     }
 
-    private static class MedianFilter {
-        private final long windowDurationMs;
-        private final LinkedList<SensorReading> window = new LinkedList<>();
-        
-        MedianFilter(long windowDurationMs) { this.windowDurationMs = windowDurationMs; }
-        
-        float filter(float newValue, long currentTime) {
-            window.addLast(new SensorReading(currentTime, newValue));
-            while (!window.isEmpty() && (currentTime - window.peekFirst().time) > windowDurationMs) {
-                window.removeFirst();
-            }
-            List<Float> sortedValues = new ArrayList<>(window.size());
-            for (SensorReading reading : window) sortedValues.add(reading.value);
-            Collections.sort(sortedValues);
-            int middle = sortedValues.size() / 2;
-            return (sortedValues.size() % 2 == 1) ? sortedValues.get(middle) : (sortedValues.get(middle - 1) + sortedValues.get(middle)) / 2.0f;
-        }
-        
-        void clear() { window.clear(); }
+    /** Must be called on the worker thread, e.g. from a task passed to {@link #post}. */
+    public String describeSampling() { return pipeline.describeSampling(); }
+
+    /** Everything the status panel shows; worker thread only, like {@link #describeSampling}. */
+    public LightStatus snapshotStatus() {
+        return new LightStatus(getLastSensorValue(), getSetBrightness(), displayProfile.describe(),
+                getWritesIssued(), getWritesSuppressed(), describeSampling(), describeUnlockLatency(), describeCost(),
+                describeStartup());
+    }
+
+    /**
+     * Boot to first brightness, the settings load and the startup phase timestamps. The boot
+     * that migrates still reads the old preferences, so it gives the before figure for the
+     * binary store and any later boot the after.
+     */
+    public String describeStartup() {
+        long boot = timeline.bootToFirstBrightness();
+        return "Boot to first brightness: " + (boot < 0 ? "not a boot start" : boot + " ms")
+                + "\nSettings load: " + settingsStore.describeLoad()
+                + "\n" + timeline.describe();
+    }
+
+    /** Per-event cost and rates; worker thread only, like {@link #describeSampling}. */
+    public String describeCost() {
+        long now = SystemClock.elapsedRealtime();
+        return "Event to decision: " + eventToDecision.describe()
+                + "\nDecision to write: " + decisionToWrite.describe()
+                + "\nEvents: " + eventsPerSecond.describe(now, "/s")
+                + "\nWrites: " + writesPerMinute.describe(now, "/min");
     }
 }
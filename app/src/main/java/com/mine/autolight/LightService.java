@@ -10,19 +10,81 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.ServiceInfo;
 import android.content.res.Configuration;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
-import android.widget.Toast;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 
 public class LightService extends Service {
 
-    public static boolean isRunning = false;
+    /** Delivers a status snapshot on the main thread. */
+    public interface StatusCallback {
+        void onStatus(LightStatus status);
+    }
+
+    /**
+     * In-process API for the app's own UI, returned from {@link #onBind}. Call it from the
+     * main thread; while a connection is held the service is running.
+     */
+    public final class LocalBinder extends Binder {
+
+        /** Reloads the saved settings; the pipeline switches over on its next sensor event. */
+        public void applySettings() {
+            settings.load();
+            lightControl.reconfigure();
+        }
+
+        /** Reads the status after any queued sensor work and hands it back on the main thread. */
+        public void requestStatus(StatusCallback callback) {
+            lightControl.post(() -> {
+                LightStatus status = lightControl.snapshotStatus();
+                mainHandler.post(() -> callback.onStatus(status));
+            });
+        }
+
+        /** Starts live per-event updates, delivered on the service's worker thread. */
+        public void subscribe(LightControl.LiveListener listener) {
+            lightControl.addLiveListener(listener);
+        }
+
+        public void unsubscribe(LightControl.LiveListener listener) {
+            lightControl.removeLiveListener(listener);
+        }
+
+        /**
+         * Starts filling the service's telemetry ring and returns it; {@code onData} runs on the
+         * worker thread after every event. Only one observer at a time.
+         */
+        TelemetryRing attachTelemetry(Runnable onData) {
+            telemetry.setOnData(onData);
+            lightControl.addLiveListener(telemetry);
+            return telemetry;
+        }
+
+        void detachTelemetry() {
+            lightControl.removeLiveListener(telemetry);
+            telemetry.setOnData(null);
+        }
+    }
 
     private static final int NOTIFICATION_ID = 1;
     private static final String CHANNEL_ID = "AutoLightServiceChannel";
 
     private MySettings settings;
     private LightControl lightControl;
+    private final LocalBinder binder = new LocalBinder();
+    private final TelemetryRing telemetry = new TelemetryRing(1024);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final StartupTimeline timeline = new StartupTimeline();
+    private final Runnable registerReceivers = this::registerSystemReceiver;
+
+    // Screen state the first brightness was started for; checked again once the receivers are in
+    private boolean interactiveAtStart;
+    private boolean destroyed = false;
 
     // Receives system broadcasts only
     private final BroadcastReceiver systemReceiver = new BroadcastReceiver() {
@@ -30,56 +92,83 @@ public class LightService extends Service {
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (action == null) return;
-
-            boolean isLandscape =
-                    getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
-            lightControl.setLandscape(isLandscape);
-
-            if (Intent.ACTION_SCREEN_OFF.equals(action)) {
-                lightControl.stopListening();
-                lightControl.prepareForScreenOn();
-            } else if (Intent.ACTION_USER_PRESENT.equals(action) || Intent.ACTION_SCREEN_ON.equals(action)) {
-                if (settings.mode == Constants.WORK_MODE_UNLOCK) {
-                    lightControl.onScreenUnlock();
-                } else {
-                    lightControl.startListening();
-                }
-            } else if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
-                if (settings.mode == Constants.WORK_MODE_UNLOCK) {
-                    lightControl.onScreenUnlock();
-                } else {
-                    lightControl.startListening();
-                }
-            }
+            onSystemAction(action);
         }
     };
 
-    // Receives app-internal commands only
-    private final BroadcastReceiver commandReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (!Constants.SERVICE_INTENT_ACTION.equals(intent.getAction())) return;
+    private void onSystemAction(String action) {
+        boolean isLandscape =
+                getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
+        lightControl.setLandscape(isLandscape);
 
-            int payload = intent.getIntExtra(Constants.SERVICE_INTENT_EXTRA, -1);
+        if (Intent.ACTION_SCREEN_ON.equals(action)) {
+            lightControl.markScreenOn(SystemClock.elapsedRealtime());
+        }
 
-            if (payload == Constants.SERVICE_INTENT_PAYLOAD_PING) {
-                String status = "Lux: " + lightControl.getLastSensorValue()
-                        + "\nBrightness: " + lightControl.getSetBrightness();
-                Toast.makeText(context, status, Toast.LENGTH_SHORT).show();
-            } else if (payload == Constants.SERVICE_INTENT_PAYLOAD_SET) {
-                lightControl.reconfigure();
+        if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+            lightControl.stopListening();
+            lightControl.prepareForScreenOn();
+        } else if (Intent.ACTION_USER_PRESENT.equals(action) || Intent.ACTION_SCREEN_ON.equals(action)) {
+            if (settings.mode == Constants.WORK_MODE_UNLOCK) {
+                lightControl.onScreenUnlock();
+            } else {
+                lightControl.startListening();
+            }
+        } else if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
+            lightControl.setDisplayProfile(DisplayBrightnessProfile.resolve(this));
+            if (settings.mode == Constants.WORK_MODE_UNLOCK) {
+                lightControl.onScreenUnlock();
+            } else {
+                lightControl.startListening();
             }
         }
-    };
+    }
 
     @Override
     public void onCreate() {
         super.onCreate();
-        isRunning = true;
+        timeline.mark(StartupTimeline.PROCESS_START, Process.getStartElapsedRealtime());
+        timeline.mark(StartupTimeline.SERVICE_CREATE, SystemClock.elapsedRealtime());
 
         settings = new MySettings(this);
-        lightControl = new LightControl(this);
+        timeline.mark(StartupTimeline.SETTINGS_LOADED, SystemClock.elapsedRealtime());
+        lightControl = new LightControl(this, DisplayBrightnessProfile.resolve(this), timeline);
+        timeline.mark(StartupTimeline.CONTROL_READY, SystemClock.elapsedRealtime());
+
+        // Sensor and first brightness go first: the worker registers and applies them before
+        // it creates the notification channel (see onStartCommand). The receivers only matter
+        // for the next screen change, so they are registered from a later main-thread message,
+        // which then catches up on any screen change in between.
+        startFirstBrightness();
+        mainHandler.post(registerReceivers);
+    }
+
+    private void startFirstBrightness() {
+        boolean isLandscape =
+                getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
+        lightControl.setLandscape(isLandscape);
+
+        interactiveAtStart = isInteractive();
+        if (settings.mode == Constants.WORK_MODE_ALWAYS) {
+            lightControl.startListening();
+            return;
+        }
+        // With the screen already on (e.g. the boot unlock came before the service), act
+        // as the screen-on broadcast would instead of waiting for the next one
+        if (!interactiveAtStart) return;
+        if (settings.mode == Constants.WORK_MODE_UNLOCK) {
+            lightControl.onScreenUnlock();
+        } else {
+            lightControl.startListening();
+        }
+    }
+
+    private boolean isInteractive() {
+        PowerManager pm = getSystemService(PowerManager.class);
+        return pm == null || pm.isInteractive();
+    }
 
+    private void registerSystemReceiver() {
         IntentFilter sys = new IntentFilter();
         sys.addAction(Intent.ACTION_SCREEN_ON);
         sys.addAction(Intent.ACTION_SCREEN_OFF);
@@ -87,21 +176,36 @@ public class LightService extends Service {
         sys.addAction(Intent.ACTION_CONFIGURATION_CHANGED);
         sys.setPriority(IntentFilter.SYSTEM_HIGH_PRIORITY);
 
-        IntentFilter cmd = new IntentFilter(Constants.SERVICE_INTENT_ACTION);
-
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
             registerReceiver(systemReceiver, sys, Context.RECEIVER_EXPORTED);
-            registerReceiver(commandReceiver, cmd, Context.RECEIVER_NOT_EXPORTED);
         } else {
             registerReceiver(systemReceiver, sys);
-            registerReceiver(commandReceiver, cmd);
+        }
+        timeline.mark(StartupTimeline.RECEIVERS_REGISTERED, SystemClock.elapsedRealtime());
+
+        // The screen went off or on before anything was listening for it
+        boolean interactive = isInteractive();
+        if (interactive != interactiveAtStart) {
+            onSystemAction(interactive ? Intent.ACTION_SCREEN_ON : Intent.ACTION_SCREEN_OFF);
         }
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        createNotificationChannel();
+        if (intent != null) {
+            timeline.mark(StartupTimeline.BOOT_RECEIVED, intent.getLongExtra(Constants.EXTRA_BOOT_RECEIVED_AT, 0));
+        }
+        // Creating the channel is a call into the system server, so it runs on the worker,
+        // queued behind the first brightness; the notification goes up once the channel exists
+        lightControl.post(() -> {
+            createNotificationChannel();
+            mainHandler.post(this::enterForeground);
+        });
+        return START_STICKY;
+    }
 
+    private void enterForeground() {
+        if (destroyed) return;
         Notification.Builder builder =
                 (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
                         ? new Notification.Builder(this, CHANNEL_ID)
@@ -121,16 +225,7 @@ public class LightService extends Service {
         } else {
             startForeground(NOTIFICATION_ID, notification);
         }
-
-        boolean isLandscape =
-                getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE;
-        lightControl.setLandscape(isLandscape);
-
-        if (settings.mode == Constants.WORK_MODE_ALWAYS) {
-            lightControl.startListening();
-        }
-
-        return START_STICKY;
+        timeline.mark(StartupTimeline.FOREGROUND, SystemClock.elapsedRealtime());
     }
 
     private void createNotificationChannel() {
@@ -144,20 +239,19 @@ public class LightService extends Service {
 
     @Override
     public void onDestroy() {
-        isRunning = false;
-
+        destroyed = true;
         if (lightControl != null) {
-            lightControl.stopListening();
+            lightControl.shutdown();
         }
 
+        mainHandler.removeCallbacks(registerReceivers);
         try { unregisterReceiver(systemReceiver); } catch (Exception ignored) { }
-        try { unregisterReceiver(commandReceiver); } catch (Exception ignored) { }
 
         super.onDestroy();
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
     }
 }
@@ -0,0 +1,39 @@
+package com.mine.autolight;
+
+/** Point-in-time view of the service, built on the worker thread and safe to read anywhere. */
+public final class LightStatus {
+
+    public final int lux;
+    public final int brightness;
+    public final String range;
+    public final long writesIssued;
+    public final long writesSuppressed;
+    public final String sampling;
+    public final String unlockLatency;
+    public final String cost;
+    public final String startup;
+
+    LightStatus(int lux, int brightness, String range, long writesIssued, long writesSuppressed,
+                String sampling, String unlockLatency, String cost, String startup) {
+        this.lux = lux;
+        this.brightness = brightness;
+        this.range = range;
+        this.writesIssued = writesIssued;
+        this.writesSuppressed = writesSuppressed;
+        this.sampling = sampling;
+        this.unlockLatency = unlockLatency;
+        this.cost = cost;
+        this.startup = startup;
+    }
+
+    public String describe() {
+        return "Lux: " + lux
+                + "\nBrightness: " + brightness
+                + "\nRange: " + range
+                + "\nWrites: " + writesIssued + " (" + writesSuppressed + " skipped)"
+                + "\nSensor rate: " + sampling
+                + "\nScreen-on to brightness: " + unlockLatency
+                + "\n" + cost
+                + "\n" + startup;
+    }
+}
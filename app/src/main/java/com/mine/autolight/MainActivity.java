@@ -3,24 +3,34 @@ package com.mine.autolight;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.provider.Settings;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.*;
 
+import com.mine.autolight.core.PipelineConfig;
+
+import java.util.Arrays;
+
 public class MainActivity extends Activity {
 
     private Button btnStart;
     private TextView tvState;
-    private EditText etSensor1, etSensor2, etSensor3, etSensor4;
-    private EditText etBrightness1, etBrightness2, etBrightness3, etBrightness4;
+    private TextView tvDiagnostics;
+    private TelemetryView telemetryView;
+    private boolean isLiveShown = false;
+    private LinearLayout llCurvePoints;
+    private CheckBox cbSmoothCurve;
     
     // Fine-tuning sliders and value fields
     private SeekBar sliderSensitivity, sliderMinimumChange, sliderSmoothingDuration;
@@ -29,6 +39,12 @@ public class MainActivity extends Activity {
     private EditText etSensitivityValue, etMinimumChangeValue, etSmoothingDurationValue;
     private EditText etQuickReactLuxValue, etQuickReactPercentValue;
     private EditText etEnvFilterValue;
+    private RadioGroup rgSmoothingMode, rgPreFilter, rgQuickReactEngine;
+
+    // Advanced settings
+    private SeekBar sliderMinWriteInterval, sliderBatchLatency, sliderWarmStart;
+    private EditText etMinWriteIntervalValue, etBatchLatencyValue, etWarmStartValue;
+    private CheckBox cbAdaptiveSampling, cbTraceRecording, cbSystemTracing;
     
     private MySettings sett;
     private boolean isExpanded = false;
@@ -37,6 +53,24 @@ public class MainActivity extends Activity {
     private static final int SENSOR_MAX = 200000;
     private static final int BRIGHTNESS_MIN = 1;
     private static final int BRIGHTNESS_MAX = 100;
+    private static final int MIN_CURVE_POINTS = 2;
+
+    // Bound without BIND_AUTO_CREATE: connected exactly while the service is running
+    private LightService.LocalBinder service;
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = (LightService.LocalBinder) binder;
+            displayServiceStatus(1);
+            if (isLiveShown) attachTelemetry();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+            displayServiceStatus(0);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,6 +99,23 @@ public class MainActivity extends Activity {
 
         tvState = findViewById(R.id.tv_service_state);
         btnStart = findViewById(R.id.btn_start_stop);
+        tvDiagnostics = findViewById(R.id.tv_diagnostics);
+        telemetryView = findViewById(R.id.telemetry_view);
+
+        Button btnLive = findViewById(R.id.btn_live);
+        btnLive.setOnClickListener(v -> {
+            if (isLiveShown) {
+                detachTelemetry();
+                telemetryView.setVisibility(View.GONE);
+                btnLive.setText(R.string.show_live);
+                isLiveShown = false;
+            } else {
+                telemetryView.setVisibility(View.VISIBLE);
+                btnLive.setText(R.string.hide_live);
+                isLiveShown = true;
+                attachTelemetry();
+            }
+        });
 
         btnStart.setOnClickListener(v -> {
             if (isServiceRunning()) {
@@ -81,18 +132,20 @@ public class MainActivity extends Activity {
         Button btnState = findViewById(R.id.btn_get_state);
         btnState.setOnClickListener(v -> {
             displayServiceStatus(isServiceRunning() ? 1 : 0);
-            sendBroadcastToService(Constants.SERVICE_INTENT_PAYLOAD_PING);
+            if (service != null) service.requestStatus(this::showStatus);
         });
 
-        etSensor1 = findViewById(R.id.et_sensor_value_1);
-        etSensor2 = findViewById(R.id.et_sensor_value_2);
-        etSensor3 = findViewById(R.id.et_sensor_value_3);
-        etSensor4 = findViewById(R.id.et_sensor_value_4);
+        llCurvePoints = findViewById(R.id.ll_curve_points);
+        cbSmoothCurve = findViewById(R.id.cb_smooth_curve);
 
-        etBrightness1 = findViewById(R.id.et_brightness_value_1);
-        etBrightness2 = findViewById(R.id.et_brightness_value_2);
-        etBrightness3 = findViewById(R.id.et_brightness_value_3);
-        etBrightness4 = findViewById(R.id.et_brightness_value_4);
+        Button btnAddPoint = findViewById(R.id.btn_add_point);
+        btnAddPoint.setOnClickListener(v -> {
+            if (llCurvePoints.getChildCount() >= PipelineConfig.MAX_CURVE_POINTS) {
+                showErrorDialog("The curve can have at most " + PipelineConfig.MAX_CURVE_POINTS + " points");
+                return;
+            }
+            addCurvePointRow("", "");
+        });
 
         // Fine-tuning sliders
         sliderSensitivity = findViewById(R.id.slider_sensitivity);
@@ -110,6 +163,22 @@ public class MainActivity extends Activity {
         etQuickReactPercentValue = findViewById(R.id.et_quick_react_percent_value);
         etEnvFilterValue = findViewById(R.id.et_env_filter_value);
 
+        // Fine-tuning algorithm choices
+        rgSmoothingMode = findViewById(R.id.rg_smoothing_mode);
+        rgPreFilter = findViewById(R.id.rg_pre_filter);
+        rgQuickReactEngine = findViewById(R.id.rg_quick_react_engine);
+
+        // Advanced settings
+        sliderMinWriteInterval = findViewById(R.id.slider_min_write_interval);
+        etMinWriteIntervalValue = findViewById(R.id.et_min_write_interval_value);
+        sliderBatchLatency = findViewById(R.id.slider_batch_latency);
+        etBatchLatencyValue = findViewById(R.id.et_batch_latency_value);
+        cbAdaptiveSampling = findViewById(R.id.cb_adaptive_sampling);
+        sliderWarmStart = findViewById(R.id.slider_warm_start);
+        etWarmStartValue = findViewById(R.id.et_warm_start_value);
+        cbTraceRecording = findViewById(R.id.cb_trace_recording);
+        cbSystemTracing = findViewById(R.id.cb_system_tracing);
+
         refillCollapsibleSettings();
 
         // Setup slider listeners
@@ -183,11 +252,46 @@ public class MainActivity extends Activity {
             @Override public void onStopTrackingTouch(SeekBar seekBar) {}
         });
 
+        sliderMinWriteInterval.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                etMinWriteIntervalValue.setText(String.valueOf(progress * 50));
+            }
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
+
+        sliderBatchLatency.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                etBatchLatencyValue.setText(String.valueOf(progress * 500));
+            }
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
+
+        sliderWarmStart.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                etWarmStartValue.setText(String.valueOf(progress * 15000));
+            }
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
+
         Button btnSave = findViewById(R.id.btn_save_settings);
         btnSave.setOnClickListener(v -> {
             if (validateAndSaveSettings()) {
                 Toast.makeText(this, "Settings saved", Toast.LENGTH_SHORT).show();
-                sendBroadcastToService(Constants.SERVICE_INTENT_PAYLOAD_SET);
+                // Show the points in the order they were saved
+                refillCollapsibleSettings();
+                applySettingsToService();
             }
         });
 
@@ -209,76 +313,63 @@ public class MainActivity extends Activity {
             if (checkedId == R.id.rb_work_unlock) sett.mode = Constants.WORK_MODE_UNLOCK;
 
             sett.save();
-            sendBroadcastToService(Constants.SERVICE_INTENT_PAYLOAD_SET);
+            applySettingsToService();
         });
     }
 
     private boolean validateAndSaveSettings() {
         try {
-            int l1 = Integer.parseInt(etSensor1.getText().toString());
-            int l2 = Integer.parseInt(etSensor2.getText().toString());
-            int l3 = Integer.parseInt(etSensor3.getText().toString());
-            int l4 = Integer.parseInt(etSensor4.getText().toString());
-
-            int b1 = Integer.parseInt(etBrightness1.getText().toString());
-            int b2 = Integer.parseInt(etBrightness2.getText().toString());
-            int b3 = Integer.parseInt(etBrightness3.getText().toString());
-            int b4 = Integer.parseInt(etBrightness4.getText().toString());
-
-            if (!isValidSensorValue(l1)) {
-                showErrorDialog("1) Sensor must be between " + SENSOR_MIN + " and " + SENSOR_MAX);
-                return false;
-            }
-			
-			if (!isValidSensorValue(l2)) {
-                showErrorDialog("2) Sensor must be between " + SENSOR_MIN + " and " + SENSOR_MAX);
-                return false;
-            }
-            if (!isValidSensorValue(l3)) {
-                showErrorDialog("3) Sensor must be between " + SENSOR_MIN + " and " + SENSOR_MAX);
-                return false;
-            }
-            if (!isValidSensorValue(l4)) {
-                showErrorDialog("4) Sensor must be between " + SENSOR_MIN + " and " + SENSOR_MAX);
-                return false;
+            int n = llCurvePoints.getChildCount();
+            int[] lux = new int[n];
+            int[] pct = new int[n];
+            for (int i = 0; i < n; i++) {
+                View row = llCurvePoints.getChildAt(i);
+                EditText etSensor = row.findViewById(R.id.et_sensor_value);
+                EditText etBrightness = row.findViewById(R.id.et_brightness_value);
+                lux[i] = Integer.parseInt(etSensor.getText().toString());
+                pct[i] = Integer.parseInt(etBrightness.getText().toString());
+
+                if (!isValidSensorValue(lux[i])) {
+                    showErrorDialog((i + 1) + ") Sensor must be between " + SENSOR_MIN + " and " + SENSOR_MAX);
+                    return false;
+                }
+                if (!isValidBrightnessValue(pct[i])) {
+                    showErrorDialog((i + 1) + ") Brightness must be between " + BRIGHTNESS_MIN + " and " + BRIGHTNESS_MAX);
+                    return false;
+                }
             }
 
-            if (!isValidBrightnessValue(b1)) {
-                showErrorDialog("1) Brightness must be between " + BRIGHTNESS_MIN + " and " + BRIGHTNESS_MAX);
-                return false;
-            }
-            if (!isValidBrightnessValue(b2)) {
-                showErrorDialog("2) Brightness must be between " + BRIGHTNESS_MIN + " and " + BRIGHTNESS_MAX);
-                return false;
-            }
-            if (!isValidBrightnessValue(b3)) {
-                showErrorDialog("3) Brightness must be between " + BRIGHTNESS_MIN + " and " + BRIGHTNESS_MAX);
-                return false;
-            }
-            if (!isValidBrightnessValue(b4)) {
-                showErrorDialog("4) Brightness must be between " + BRIGHTNESS_MIN + " and " + BRIGHTNESS_MAX);
+            if (n < MIN_CURVE_POINTS) {
+                showErrorDialog("The curve needs at least " + MIN_CURVE_POINTS + " points");
                 return false;
             }
 
-            if (!(l1 < l2 && l2 < l3 && l3 < l4)) {
-                showErrorDialog("Sensor values must be in ascending order: 1) < 2) < 3) < 4)");
-                return false;
+            // Points may be entered in any order; keep them sorted by sensor value
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Integer.compare(lux[a], lux[b]));
+            int[] sortedLux = new int[n];
+            int[] sortedPct = new int[n];
+            for (int i = 0; i < n; i++) {
+                sortedLux[i] = lux[order[i]];
+                sortedPct[i] = pct[order[i]];
             }
 
-            if (!(b1 < b2 && b2 < b3 && b3 < b4)) {
-                showErrorDialog("Brightness values must be in ascending order: 1) < 2) < 3) < 4)");
-                return false;
+            for (int i = 1; i < n; i++) {
+                if (sortedLux[i] == sortedLux[i - 1]) {
+                    showErrorDialog("Two points have the same sensor value: " + sortedLux[i]);
+                    return false;
+                }
+                if (sortedPct[i] <= sortedPct[i - 1]) {
+                    showErrorDialog("Brightness must rise with the sensor value (at sensor " + sortedLux[i] + ")");
+                    return false;
+                }
             }
 
-            sett.l1 = l1;
-            sett.l2 = l2;
-            sett.l3 = l3;
-            sett.l4 = l4;
-
-            sett.b1 = b1;
-            sett.b2 = b2;
-            sett.b3 = b3;
-            sett.b4 = b4;
+            sett.curveLux = sortedLux;
+            sett.curvePercent = sortedPct;
+            sett.curveInterpolation = cbSmoothCurve.isChecked()
+                    ? PipelineConfig.CURVE_MONOTONE : PipelineConfig.CURVE_LINEAR;
 
             // Save fine-tuning parameters from sliders
             sett.hysteresisThreshold = 0.05f + (sliderSensitivity.getProgress() * 0.05f);
@@ -288,6 +379,23 @@ public class MainActivity extends Activity {
             sett.quickReactPercent = 20 + (sliderQuickReactPercent.getProgress() * 5);
             sett.envFilterLevel = sliderEnvFilter.getProgress();
 
+            int smoothing = rgSmoothingMode.getCheckedRadioButtonId();
+            if (smoothing == R.id.rb_smoothing_count) sett.smoothingMode = PipelineConfig.SMOOTHING_COUNT;
+            if (smoothing == R.id.rb_smoothing_time) sett.smoothingMode = PipelineConfig.SMOOTHING_TIME;
+            if (smoothing == R.id.rb_smoothing_ema) sett.smoothingMode = PipelineConfig.SMOOTHING_EXPONENTIAL;
+            if (smoothing == R.id.rb_smoothing_kalman) sett.smoothingMode = PipelineConfig.SMOOTHING_KALMAN;
+            sett.preFilter = rgPreFilter.getCheckedRadioButtonId() == R.id.rb_prefilter_none
+                    ? PipelineConfig.PREFILTER_NONE : PipelineConfig.PREFILTER_MEDIAN;
+            sett.quickReactEngine = rgQuickReactEngine.getCheckedRadioButtonId() == R.id.rb_quick_react_change_point
+                    ? PipelineConfig.QUICK_REACT_CHANGE_POINT : PipelineConfig.QUICK_REACT_DEBOUNCE;
+
+            sett.minWriteIntervalMs = sliderMinWriteInterval.getProgress() * 50;
+            sett.batchLatencyMs = sliderBatchLatency.getProgress() * 500;
+            sett.adaptiveSampling = cbAdaptiveSampling.isChecked();
+            sett.warmStartMs = sliderWarmStart.getProgress() * 15000;
+            sett.traceRecording = cbTraceRecording.isChecked();
+            sett.systemTracing = cbSystemTracing.isChecked();
+
             sett.save();
             return true;
 
@@ -297,6 +405,29 @@ public class MainActivity extends Activity {
         }
     }
 
+    private void addCurvePointRow(String lux, String pct) {
+        View row = LayoutInflater.from(this).inflate(R.layout.item_curve_point, llCurvePoints, false);
+        EditText etSensor = row.findViewById(R.id.et_sensor_value);
+        EditText etBrightness = row.findViewById(R.id.et_brightness_value);
+        etSensor.setText(lux);
+        etBrightness.setText(pct);
+        Button btnRemove = row.findViewById(R.id.btn_remove_point);
+        btnRemove.setOnClickListener(v -> {
+            if (llCurvePoints.getChildCount() <= MIN_CURVE_POINTS) return;
+            llCurvePoints.removeView(row);
+            numberCurvePoints();
+        });
+        llCurvePoints.addView(row);
+        numberCurvePoints();
+    }
+
+    private void numberCurvePoints() {
+        for (int i = 0; i < llCurvePoints.getChildCount(); i++) {
+            TextView tvIndex = llCurvePoints.getChildAt(i).findViewById(R.id.tv_point_index);
+            tvIndex.setText((i + 1) + ")");
+        }
+    }
+
     private boolean isValidSensorValue(int value) {
         return value >= SENSOR_MIN && value <= SENSOR_MAX;
     }
@@ -328,26 +459,44 @@ public class MainActivity extends Activity {
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, LightService.class), connection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        detachTelemetry();
+        try { unbindService(connection); } catch (Exception ignored) { }
+        service = null;
+        super.onStop();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
 
         if (checkAndRequestPermissions()) {
-            if (!isServiceRunning() && getServiceEnabledPref()) {
+            if (isServiceRunning()) {
+                displayServiceStatus(1);
+            } else if (getServiceEnabledPref()) {
+                // Also harmless if it is running but not yet connected; the connection reports it
                 runService();
+                displayServiceStatus(-1);
+            } else {
+                displayServiceStatus(0);
             }
-            displayServiceStatus(isServiceRunning() ? 1 : 0);
         }
     }
 
     private void setServiceEnabledPref(boolean enabled) {
-        SharedPreferences prefs = getSharedPreferences(Constants.PREFS_NAME, MODE_PRIVATE);
-        prefs.edit().putBoolean(Constants.PREF_ENABLED_KEY, enabled).apply();
+        sett.serviceEnabled = enabled;
+        sett.save();
     }
 
     private boolean getServiceEnabledPref() {
-        SharedPreferences prefs = getSharedPreferences(Constants.PREFS_NAME, MODE_PRIVATE);
-        return prefs.getBoolean(Constants.PREF_ENABLED_KEY, true);
+        return sett.serviceEnabled;
     }
 
     private void runService() {
@@ -357,18 +506,35 @@ public class MainActivity extends Activity {
     }
 
     private void killService() {
+        detachTelemetry();
         stopService(new Intent(this, LightService.class));
+        // A stopped service does not report a disconnect; the binding reconnects if it starts again
+        service = null;
     }
 
     private boolean isServiceRunning() {
-        return LightService.isRunning;
+        return service != null;
+    }
+
+    private void applySettingsToService() {
+        // Not running: the service reads the saved settings when it starts
+        if (service != null) service.applySettings();
+    }
+
+    private void attachTelemetry() {
+        if (service == null) return;
+        telemetryView.setSource(service.attachTelemetry(telemetryView::onData));
     }
 
-    private void sendBroadcastToService(int payload) {
-        Intent i = new Intent(Constants.SERVICE_INTENT_ACTION);
-        i.setPackage(getPackageName());
-        i.putExtra(Constants.SERVICE_INTENT_EXTRA, payload);
-        sendBroadcast(i);
+    // The service side costs nothing again once no one is attached
+    private void detachTelemetry() {
+        if (service != null) service.detachTelemetry();
+        telemetryView.setSource(null);
+    }
+
+    private void showStatus(LightStatus status) {
+        tvDiagnostics.setText(status.describe());
+        tvDiagnostics.setVisibility(View.VISIBLE);
     }
 
     private void requestNotificationPermission() {
@@ -425,15 +591,11 @@ public class MainActivity extends Activity {
     }
 
     private void refillCollapsibleSettings() {
-        etSensor1.setText(String.valueOf(sett.l1));
-        etSensor2.setText(String.valueOf(sett.l2));
-        etSensor3.setText(String.valueOf(sett.l3));
-        etSensor4.setText(String.valueOf(sett.l4));
-
-        etBrightness1.setText(String.valueOf(sett.b1));
-        etBrightness2.setText(String.valueOf(sett.b2));
-        etBrightness3.setText(String.valueOf(sett.b3));
-        etBrightness4.setText(String.valueOf(sett.b4));
+        llCurvePoints.removeAllViews();
+        for (int i = 0; i < sett.curveLux.length; i++) {
+            addCurvePointRow(String.valueOf(sett.curveLux[i]), String.valueOf(sett.curvePercent[i]));
+        }
+        cbSmoothCurve.setChecked(sett.curveInterpolation == PipelineConfig.CURVE_MONOTONE);
 
         // Set slider positions based on saved settings
         sliderSensitivity.setProgress(Math.round((sett.hysteresisThreshold - 0.05f) / 0.05f));
@@ -452,5 +614,24 @@ public class MainActivity extends Activity {
         
         String[] levels = {"Low", "Med", "High"};
         etEnvFilterValue.setText(levels[Math.max(0, Math.min(2, sett.envFilterLevel))]);
+
+        if (sett.smoothingMode == PipelineConfig.SMOOTHING_COUNT) rgSmoothingMode.check(R.id.rb_smoothing_count);
+        if (sett.smoothingMode == PipelineConfig.SMOOTHING_TIME) rgSmoothingMode.check(R.id.rb_smoothing_time);
+        if (sett.smoothingMode == PipelineConfig.SMOOTHING_EXPONENTIAL) rgSmoothingMode.check(R.id.rb_smoothing_ema);
+        if (sett.smoothingMode == PipelineConfig.SMOOTHING_KALMAN) rgSmoothingMode.check(R.id.rb_smoothing_kalman);
+        rgPreFilter.check(sett.preFilter == PipelineConfig.PREFILTER_NONE
+                ? R.id.rb_prefilter_none : R.id.rb_prefilter_median);
+        rgQuickReactEngine.check(sett.quickReactEngine == PipelineConfig.QUICK_REACT_CHANGE_POINT
+                ? R.id.rb_quick_react_change_point : R.id.rb_quick_react_debounce);
+
+        sliderMinWriteInterval.setProgress(sett.minWriteIntervalMs / 50);
+        etMinWriteIntervalValue.setText(String.valueOf(sett.minWriteIntervalMs));
+        sliderBatchLatency.setProgress(sett.batchLatencyMs / 500);
+        etBatchLatencyValue.setText(String.valueOf(sett.batchLatencyMs));
+        cbAdaptiveSampling.setChecked(sett.adaptiveSampling);
+        sliderWarmStart.setProgress(sett.warmStartMs / 15000);
+        etWarmStartValue.setText(String.valueOf(sett.warmStartMs));
+        cbTraceRecording.setChecked(sett.traceRecording);
+        cbSystemTracing.setChecked(sett.systemTracing);
     }
 }
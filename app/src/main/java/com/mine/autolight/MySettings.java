@@ -3,12 +3,33 @@ package com.mine.autolight;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.mine.autolight.core.ConfigSnapshot;
+import com.mine.autolight.core.PipelineConfig;
+
+import java.nio.ByteBuffer;
+
 public class MySettings {
 
-    private final Context context;
-    private SharedPreferences sharedPref;
+    /** The SharedPreferences files used before SettingsStore; only read to migrate them. */
+    interface LegacyPreferences {
+        SharedPreferences settings();
+        SharedPreferences enabled();
+        void delete();
+    }
+
+    private final SettingsStore store;
+    private final LegacyPreferences legacy;
+
+    // Start the service at boot and when the app opens; cleared by the STOP button
+    public boolean serviceEnabled;
+
+    // Curve points, lux ascending; 2 to PipelineConfig.MAX_CURVE_POINTS of them
+    public int[] curveLux;
+    public int[] curvePercent;
+
+    // PipelineConfig.CURVE_LINEAR or CURVE_MONOTONE
+    public int curveInterpolation;
 
-    public int l1, l2, l3, l4, b1, b2, b3, b4;
     public int mode;
     
     public float hysteresisThreshold;
@@ -20,23 +41,147 @@ public class MySettings {
     // Environment Filtering Level (0=Low, 1=Med, 2=High)
     public int envFilterLevel; 
 
+    // Minimum spacing between brightness writes; bursts collapse to their latest value
+    public int minWriteIntervalMs;
+
+    // Max time the sensor hub may hold samples in its FIFO before delivering them (0 = unbatched)
+    public int batchLatencyMs;
+
+    // Let the sensor rate follow how stable the ambient light is
+    public boolean adaptiveSampling;
+
+    // Screen off shorter than this restarts from the last filtered lux (0 = always cold start)
+    public int warmStartMs;
+
+    // Record every sensor event to files/traces for offline replay
+    public boolean traceRecording;
+
+    // Emit android.os.Trace sections and counters for system tracing (debug only)
+    public boolean systemTracing;
+
+    // PipelineConfig.SMOOTHING_COUNT, SMOOTHING_TIME, SMOOTHING_EXPONENTIAL or SMOOTHING_KALMAN
+    public int smoothingMode;
+
+    // PipelineConfig.PREFILTER_MEDIAN or PREFILTER_NONE
+    public int preFilter;
+
+    // PipelineConfig.QUICK_REACT_DEBOUNCE or QUICK_REACT_CHANGE_POINT
+    public int quickReactEngine;
+
     MySettings(Context context) {
-        this.context = context;
+        this(SettingsStore.get(context), legacyPreferences(context));
+    }
+
+    MySettings(SettingsStore store, LegacyPreferences legacy) {
+        this.store = store;
+        this.legacy = legacy;
         load();
     }
 
+    private static LegacyPreferences legacyPreferences(Context context) {
+        return new LegacyPreferences() {
+            @Override
+            public SharedPreferences settings() {
+                return context.getSharedPreferences(Constants.SETTINGS_PREFS_NAME, Context.MODE_PRIVATE);
+            }
+
+            @Override
+            public SharedPreferences enabled() {
+                return context.getSharedPreferences(Constants.PREFS_NAME, Context.MODE_PRIVATE);
+            }
+
+            @Override
+            public void delete() {
+                context.deleteSharedPreferences(Constants.SETTINGS_PREFS_NAME);
+                context.deleteSharedPreferences(Constants.PREFS_NAME);
+            }
+        };
+    }
+
     public void load() {
-        sharedPref = context.getSharedPreferences(Constants.SETTINGS_PREFS_NAME, Context.MODE_PRIVATE);
+        ByteBuffer b = store.image();
+        if (b == null) {
+            loadFromPreferences();
+            // Only with no file at all: a file the store could not read is not saved over
+            if (store.isFirstRun()) migrateFromPreferences();
+            return;
+        }
 
-        l1 = sharedPref.getInt("l1", 1);
-        l2 = sharedPref.getInt("l2", 1000);
-        l3 = sharedPref.getInt("l3", 10000);
-        l4 = sharedPref.getInt("l4", 100000);
+        serviceEnabled = b.getInt(SettingsStore.SERVICE_ENABLED) != 0;
+        mode = b.getInt(SettingsStore.MODE);
 
-        b1 = sharedPref.getInt("b1", 1);
-        b2 = sharedPref.getInt("b2", 15);
-        b3 = sharedPref.getInt("b3", 30);
-        b4 = sharedPref.getInt("b4", 60);
+        int n = Math.max(2, Math.min(PipelineConfig.MAX_CURVE_POINTS, b.getInt(SettingsStore.CURVE_COUNT)));
+        curveLux = new int[n];
+        curvePercent = new int[n];
+        for (int i = 0; i < n; i++) {
+            curveLux[i] = b.getInt(SettingsStore.CURVE_LUX + 4 * i);
+            curvePercent[i] = b.getInt(SettingsStore.CURVE_PERCENT + 4 * i);
+        }
+        curveInterpolation = b.getInt(SettingsStore.CURVE_INTERPOLATION);
+
+        hysteresisThreshold = b.getFloat(SettingsStore.HYSTERESIS_THRESHOLD);
+        absoluteThreshold = b.getInt(SettingsStore.ABSOLUTE_THRESHOLD);
+        windowMs = b.getInt(SettingsStore.WINDOW_MS);
+        quickReactLux = b.getInt(SettingsStore.QUICK_REACT_LUX);
+        quickReactPercent = b.getInt(SettingsStore.QUICK_REACT_PERCENT);
+        envFilterLevel = b.getInt(SettingsStore.ENV_FILTER_LEVEL);
+        minWriteIntervalMs = b.getInt(SettingsStore.MIN_WRITE_INTERVAL_MS);
+        batchLatencyMs = b.getInt(SettingsStore.BATCH_LATENCY_MS);
+        adaptiveSampling = b.getInt(SettingsStore.ADAPTIVE_SAMPLING) != 0;
+        warmStartMs = b.getInt(SettingsStore.WARM_START_MS);
+        traceRecording = b.getInt(SettingsStore.TRACE_RECORDING) != 0;
+        systemTracing = b.getInt(SettingsStore.SYSTEM_TRACING) != 0;
+        smoothingMode = b.getInt(SettingsStore.SMOOTHING_MODE);
+        quickReactEngine = b.getInt(SettingsStore.QUICK_REACT_ENGINE);
+        preFilter = b.getInt(SettingsStore.PRE_FILTER);
+    }
+
+    /** Applies in this process at once; the file is written in the background. */
+    public void save() {
+        save(null);
+    }
+
+    private void save(Runnable onSaved) {
+        ByteBuffer b = SettingsStore.newImage();
+
+        b.putInt(SettingsStore.SERVICE_ENABLED, serviceEnabled ? 1 : 0);
+        b.putInt(SettingsStore.MODE, mode);
+
+        b.putInt(SettingsStore.CURVE_COUNT, curveLux.length);
+        for (int i = 0; i < curveLux.length; i++) {
+            b.putInt(SettingsStore.CURVE_LUX + 4 * i, curveLux[i]);
+            b.putInt(SettingsStore.CURVE_PERCENT + 4 * i, curvePercent[i]);
+        }
+        b.putInt(SettingsStore.CURVE_INTERPOLATION, curveInterpolation);
+
+        b.putFloat(SettingsStore.HYSTERESIS_THRESHOLD, hysteresisThreshold);
+        b.putInt(SettingsStore.ABSOLUTE_THRESHOLD, absoluteThreshold);
+        b.putInt(SettingsStore.WINDOW_MS, windowMs);
+        b.putInt(SettingsStore.QUICK_REACT_LUX, quickReactLux);
+        b.putInt(SettingsStore.QUICK_REACT_PERCENT, quickReactPercent);
+        b.putInt(SettingsStore.ENV_FILTER_LEVEL, envFilterLevel);
+        b.putInt(SettingsStore.MIN_WRITE_INTERVAL_MS, minWriteIntervalMs);
+        b.putInt(SettingsStore.BATCH_LATENCY_MS, batchLatencyMs);
+        b.putInt(SettingsStore.ADAPTIVE_SAMPLING, adaptiveSampling ? 1 : 0);
+        b.putInt(SettingsStore.WARM_START_MS, warmStartMs);
+        b.putInt(SettingsStore.TRACE_RECORDING, traceRecording ? 1 : 0);
+        b.putInt(SettingsStore.SYSTEM_TRACING, systemTracing ? 1 : 0);
+        b.putInt(SettingsStore.SMOOTHING_MODE, smoothingMode);
+        b.putInt(SettingsStore.QUICK_REACT_ENGINE, quickReactEngine);
+        b.putInt(SettingsStore.PRE_FILTER, preFilter);
+
+        store.write(b, onSaved);
+    }
+
+    /** The old SharedPreferences, or the defaults once they are gone. */
+    private void loadFromPreferences() {
+        SharedPreferences sharedPref = legacy.settings();
+        SharedPreferences enabledPref = legacy.enabled();
+
+        serviceEnabled = enabledPref.getBoolean(Constants.PREF_ENABLED_KEY, true);
+
+        loadCurve(sharedPref);
+        curveInterpolation = sharedPref.getInt("curveInterpolation", PipelineConfig.CURVE_LINEAR);
 
         mode = sharedPref.getInt("mode", Constants.WORK_MODE_UNLOCK);
         
@@ -46,31 +191,78 @@ public class MySettings {
         quickReactLux = sharedPref.getInt("quickReactLux", 50);
         quickReactPercent = sharedPref.getInt("quickReactPercent", 50);
         envFilterLevel = sharedPref.getInt("envFilterLevel", 1); 
+        minWriteIntervalMs = sharedPref.getInt("minWriteIntervalMs", 100);
+        batchLatencyMs = sharedPref.getInt("batchLatencyMs", 0);
+        adaptiveSampling = sharedPref.getBoolean("adaptiveSampling", true);
+        warmStartMs = sharedPref.getInt("warmStartMs", 60000);
+        traceRecording = sharedPref.getBoolean("traceRecording", false);
+        systemTracing = sharedPref.getBoolean("systemTracing", false);
+        smoothingMode = sharedPref.getInt("smoothingMode", PipelineConfig.SMOOTHING_COUNT);
+        quickReactEngine = sharedPref.getInt("quickReactEngine", PipelineConfig.QUICK_REACT_DEBOUNCE);
+        preFilter = sharedPref.getInt("preFilter", PipelineConfig.PREFILTER_MEDIAN);
     }
 
-    public void save() {
-        SharedPreferences.Editor editor = sharedPref.edit();
+    /** First run with the binary store: save what the old SharedPreferences held as binary and drop them. */
+    private void migrateFromPreferences() {
+        // Keep the old files until the binary one is safely on disk
+        save(() -> {
+            store.markMigrated();
+            legacy.delete();
+        });
+    }
 
-        editor.putInt("l1", l1);
-        editor.putInt("l2", l2);
-        editor.putInt("l3", l3);
-        editor.putInt("l4", l4);
+    private void loadCurve(SharedPreferences sharedPref) {
+        int[] lux = unpack(sharedPref.getString("curveLux", null));
+        int[] percent = unpack(sharedPref.getString("curvePercent", null));
+        if (lux != null && percent != null && lux.length == percent.length
+                && lux.length >= 2 && lux.length <= PipelineConfig.MAX_CURVE_POINTS) {
+            curveLux = lux;
+            curvePercent = percent;
+            return;
+        }
+        // The four fixed points used to be stored as l1..l4 and b1..b4
+        curveLux = new int[] {
+                sharedPref.getInt("l1", 1), sharedPref.getInt("l2", 1000),
+                sharedPref.getInt("l3", 10000), sharedPref.getInt("l4", 100000) };
+        curvePercent = new int[] {
+                sharedPref.getInt("b1", 1), sharedPref.getInt("b2", 15),
+                sharedPref.getInt("b3", 30), sharedPref.getInt("b4", 60) };
+    }
 
-        editor.putInt("b1", b1);
-        editor.putInt("b2", b2);
-        editor.putInt("b3", b3);
-        editor.putInt("b4", b4);
+    private static int[] unpack(String packed) {
+        if (packed == null || packed.isEmpty()) return null;
+        String[] parts = packed.split(",");
+        int[] values = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) values[i] = Integer.parseInt(parts[i]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return values;
+    }
 
-        editor.putInt("mode", mode);
-        
-        editor.putFloat("hysteresisThreshold", hysteresisThreshold);
-        editor.putInt("absoluteThreshold", absoluteThreshold);
-        editor.putInt("windowMs", windowMs);
-        editor.putInt("quickReactLux", quickReactLux);
-        editor.putInt("quickReactPercent", quickReactPercent);
-        editor.putInt("envFilterLevel", envFilterLevel);
-
-        editor.apply();
+    /** Immutable copy of the pipeline-relevant settings, for {@link com.mine.autolight.core.LuxPipeline#publish}. */
+    public ConfigSnapshot snapshot() {
+        PipelineConfig c = new PipelineConfig();
+        c.mode = mode;
+        c.curveLux = curveLux.clone();
+        c.curvePercent = curvePercent.clone();
+        c.curveInterpolation = curveInterpolation;
+        c.hysteresisThreshold = hysteresisThreshold;
+        c.absoluteThreshold = absoluteThreshold;
+        c.windowMs = windowMs;
+        c.smoothingMode = smoothingMode;
+        c.quickReactLux = quickReactLux;
+        c.quickReactPercent = quickReactPercent;
+        c.preFilter = preFilter;
+        c.medianWindowMs = getMedianWindowMs();
+        c.debounceMs = getDebounceMs();
+        c.quickReactEngine = quickReactEngine;
+        c.changePointThreshold = getChangePointThreshold();
+        c.batchLatencyMs = batchLatencyMs;
+        c.adaptiveSampling = adaptiveSampling;
+        c.warmStartMs = warmStartMs;
+        return ConfigSnapshot.of(c);
     }
 
     // Helpers for LightControl
@@ -91,4 +283,14 @@ public class MySettings {
             default: return 1200; // Med
         }
     }
+
+    // Same trade-off as the debounce, for the change-point engine: evidence needed, in sigmas
+    public float getChangePointThreshold() {
+        switch (envFilterLevel) {
+            case 0: return 4f; // Low
+            case 2: return 7f; // High
+            case 1: 
+            default: return 5f; // Med
+        }
+    }
 }
@@ -0,0 +1,292 @@
+package com.mine.autolight;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Binary settings file, memory-mapped on read and replaced atomically on write.
+ * Little-endian with every field at a fixed offset (see the constants below); a
+ * 16-byte header guards the payload:
+ * <pre>
+ *   header: int magic "ALST", int version, int image size, int CRC32 of the payload
+ * </pre>
+ * Each save writes a temporary file, syncs it and renames it over the old one, so a
+ * crash leaves either the old or the new settings, never a mix. One image is shared
+ * by every {@link MySettings} in the process: only the first load touches the disk,
+ * and saves reach it on a writer thread, in order, so callers never wait for the sync.
+ * <p>
+ * Fields are only ever appended: a file from an older version is upgraded on load and
+ * saved in the current layout with the next save. A file that cannot be read is never
+ * saved over. A damaged one is set aside as settings.bin.bad; one from a newer version
+ * stays where it is and this process keeps its settings in memory only.
+ * <p>
+ * The directory, the writer and the log are handed in, so the store also runs on a plain JVM.
+ */
+final class SettingsStore {
+
+    private static final String TAG = "SettingsStore";
+
+    static final int MAGIC = 0x54534C41; // "ALST" read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    // Payload offsets; booleans are stored as int 0/1
+    static final int SERVICE_ENABLED = 16;
+    static final int MODE = 20;
+    static final int HYSTERESIS_THRESHOLD = 24; // float
+    static final int ABSOLUTE_THRESHOLD = 28;
+    static final int WINDOW_MS = 32;
+    static final int QUICK_REACT_LUX = 36;
+    static final int QUICK_REACT_PERCENT = 40;
+    static final int ENV_FILTER_LEVEL = 44;
+    static final int MIN_WRITE_INTERVAL_MS = 48;
+    static final int BATCH_LATENCY_MS = 52;
+    static final int ADAPTIVE_SAMPLING = 56;
+    static final int WARM_START_MS = 60;
+    static final int TRACE_RECORDING = 64;
+    static final int SYSTEM_TRACING = 68;
+    static final int SMOOTHING_MODE = 72;
+    static final int QUICK_REACT_ENGINE = 76;
+    static final int PRE_FILTER = 80;
+    static final int CURVE_INTERPOLATION = 84;
+    static final int CURVE_COUNT = 88;
+    static final int CURVE_LUX = 92;      // int[MAX_CURVE_POINTS]
+    static final int CURVE_PERCENT = 220; // int[MAX_CURVE_POINTS]
+    static final int IMAGE_BYTES = 348;
+
+    // Image size written by each version, indexed by version
+    private static final int[] IMAGE_BYTES_BY_VERSION = { 0, 348 };
+
+    // What the first load found
+    private static final int LOAD_NONE = 0;      // no file: the first run
+    private static final int LOAD_OK = 1;
+    private static final int LOAD_UPGRADED = 2;  // older version, converted in memory
+    private static final int LOAD_DAMAGED = 3;   // set aside; defaults until the next save
+    private static final int LOAD_READ_ONLY = 4; // newer version or not movable; never written
+
+    private static final String FILE_NAME = "settings.bin";
+    private static SettingsStore instance;
+
+    private final File file;
+    private final File temp;
+    private final File damaged;
+    private final Executor writer;
+    private final Logger log;
+
+    // Read-only; absolute gets only, so threads can share it
+    private volatile ByteBuffer image;
+    private boolean loaded = false;
+
+    private volatile long loadNanos = -1;
+    private volatile boolean migrated = false;
+    private volatile int loadResult = LOAD_NONE;
+
+    /** Where the store reports a file it cannot use or save; {@link #ANDROID_LOG} in the app. */
+    interface Logger {
+        void warn(String message);
+        void error(String message);
+    }
+
+    static final Logger ANDROID_LOG = new Logger() {
+        @Override public void warn(String message) { Log.w(TAG, message); }
+        @Override public void error(String message) { Log.e(TAG, message); }
+    };
+
+    /** {@code writer} must run the saves one at a time, in the order they are handed to it. */
+    SettingsStore(File dir, Executor writer, Logger log) {
+        file = new File(dir, FILE_NAME);
+        temp = new File(dir, FILE_NAME + ".tmp");
+        damaged = new File(dir, FILE_NAME + ".bad");
+        this.writer = writer;
+        this.log = log;
+    }
+
+    static synchronized SettingsStore get(Context context) {
+        if (instance == null) {
+            instance = new SettingsStore(context.getApplicationContext().getFilesDir(), new WriterThread(), ANDROID_LOG);
+        }
+        return instance;
+    }
+
+    /**
+     * The app's writer, a HandlerThread started by the first save. Like the store it serves
+     * it lives as long as the process and is never quit: between saves it only waits on its
+     * looper, and quitting it could drop a save that is still queued.
+     */
+    private static final class WriterThread implements Executor {
+        private Handler handler;
+
+        @Override
+        public synchronized void execute(Runnable save) {
+            if (handler == null) {
+                HandlerThread thread = new HandlerThread("SettingsWriter");
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+            handler.post(save);
+        }
+    }
+
+    /**
+     * The saved image in the current layout, or null when nothing has been saved yet or the
+     * file cannot be read; {@link #isFirstRun} tells the two apart.
+     */
+    synchronized ByteBuffer image() {
+        if (!loaded) {
+            long start = System.nanoTime();
+            image = map();
+            loadNanos = System.nanoTime() - start;
+            loaded = true;
+        }
+        return image;
+    }
+
+    /** Whether the first load found no file at all, so a migration overwrites nothing. */
+    synchronized boolean isFirstRun() {
+        image();
+        return loadResult == LOAD_NONE;
+    }
+
+    /** An empty image for {@link #write}; fill the payload with absolute puts. */
+    static ByteBuffer newImage() {
+        return ByteBuffer.allocate(IMAGE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Seals {@code next} with a header and makes it the image every {@link #image} call sees
+     * from now on; the file is replaced on the writer thread. {@code onSaved}, if not null,
+     * runs there once this image is on disk, and not at all if the write fails or the file
+     * on disk is one this version must not replace.
+     */
+    synchronized void write(ByteBuffer next, Runnable onSaved) {
+        image();
+        seal(next);
+        image = next.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        if (loadResult == LOAD_READ_ONLY) {
+            log.warn("Keeping the settings file untouched; this save applies until the app stops");
+            return;
+        }
+
+        // Saves queue in order, so the last one is what stays on disk
+        writer.execute(() -> {
+            if (writeFile(next) && onSaved != null) onSaved.run();
+        });
+    }
+
+    private boolean writeFile(ByteBuffer next) {
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                ByteBuffer src = next.duplicate();
+                src.clear();
+                while (src.hasRemaining()) out.getChannel().write(src);
+                out.getFD().sync();
+            }
+            if (!temp.renameTo(file)) throw new IOException("rename failed");
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to save settings: " + e.getMessage());
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return false;
+        }
+    }
+
+    /** Marks the current image as converted from SharedPreferences, for the status line. */
+    void markMigrated() {
+        migrated = true;
+    }
+
+    String describeLoad() {
+        if (loadNanos < 0) return "not loaded";
+        String took = (loadNanos / 1000) + " us";
+        switch (loadResult) {
+            case LOAD_UPGRADED: return took + " (upgraded from an older version)";
+            case LOAD_DAMAGED: return took + " (damaged file set aside, defaults)";
+            case LOAD_READ_ONLY: return took + " (unreadable file kept, not saving)";
+            case LOAD_NONE: return took + (migrated ? " (migrated from preferences)" : " (no file, read preferences)");
+            default: return took;
+        }
+    }
+
+    private ByteBuffer map() {
+        if (!file.exists()) return null;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() < HEADER_BYTES) throw new IOException("short file");
+            ByteBuffer map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt(0) != MAGIC) throw new IOException("bad magic");
+            int version = map.getInt(4);
+            if (version > VERSION) {
+                // Saved by a newer version before a downgrade; it gets it back on the upgrade
+                log.warn("Settings file is from newer version " + version + "; leaving it alone");
+                loadResult = LOAD_READ_ONLY;
+                return null;
+            }
+            if (version < 1) throw new IOException("bad version " + version);
+            int size = IMAGE_BYTES_BY_VERSION[version];
+            if (map.getInt(8) != size || map.capacity() < size) throw new IOException("short file");
+            map.limit(size);
+            ByteBuffer saved = map.slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (saved.getInt(12) != crc(saved)) throw new IOException("checksum mismatch");
+            if (version == VERSION) {
+                loadResult = LOAD_OK;
+                return saved;
+            }
+            loadResult = LOAD_UPGRADED;
+            return upgrade(saved, version);
+        } catch (IOException e) {
+            setAside(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Converts an image saved by an older version to the current layout. The old payload
+     * is a prefix of the current one and is copied as is; the steps below fill in what each
+     * later version added.
+     */
+    static ByteBuffer upgrade(ByteBuffer old, int version) {
+        ByteBuffer next = newImage();
+        ByteBuffer payload = old.duplicate();
+        payload.clear();
+        next.put(payload);
+        // One step per version bump, e.g. for fields version 2 adds:
+        // if (version < 2) next.putInt(NEW_FIELD, itsDefault);
+        seal(next);
+        return next.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Keeps a damaged file for inspection but out of the way of the next save. */
+    private void setAside(String reason) {
+        log.warn("Setting aside settings file: " + reason);
+        loadResult = file.renameTo(damaged) ? LOAD_DAMAGED : LOAD_READ_ONLY;
+    }
+
+    private static void seal(ByteBuffer image) {
+        image.putInt(0, MAGIC);
+        image.putInt(4, VERSION);
+        image.putInt(8, IMAGE_BYTES);
+        image.putInt(12, crc(image));
+    }
+
+    private static int crc(ByteBuffer image) {
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = image.duplicate();
+        payload.clear();
+        payload.position(HEADER_BYTES);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+}
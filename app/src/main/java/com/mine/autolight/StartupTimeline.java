@@ -0,0 +1,62 @@
+package com.mine.autolight;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timestamps of the service's startup phases, on the elapsedRealtime clock (ms since boot).
+ * Each phase keeps its first mark only, so later restarts of a step do not move it.
+ * Marked from the main and worker threads.
+ */
+final class StartupTimeline {
+
+    static final int PROCESS_START = 0;
+    static final int BOOT_RECEIVED = 1;
+    static final int SERVICE_CREATE = 2;
+    static final int SETTINGS_LOADED = 3;
+    static final int CONTROL_READY = 4;
+    static final int SENSOR_REGISTERED = 5;
+    static final int FIRST_SAMPLE = 6;
+    static final int FIRST_BRIGHTNESS = 7;
+    static final int FOREGROUND = 8;
+    static final int RECEIVERS_REGISTERED = 9;
+
+    private static final String[] NAMES = {
+            "process start", "boot broadcast", "service create", "settings loaded", "control ready",
+            "sensor registered", "first sample", "first brightness", "foreground", "receivers registered" };
+
+    private final AtomicLongArray at = new AtomicLongArray(NAMES.length);
+
+    /** Records {@code phase} at {@code time} unless it was already recorded. */
+    void mark(int phase, long time) {
+        at.compareAndSet(phase, 0, time);
+    }
+
+    long get(int phase) {
+        return at.get(phase);
+    }
+
+    /** Ms from the boot broadcast to the first brightness write, or -1 if this start was not a boot. */
+    long bootToFirstBrightness() {
+        long boot = at.get(BOOT_RECEIVED);
+        long brightness = at.get(FIRST_BRIGHTNESS);
+        return (boot > 0 && brightness > 0) ? brightness - boot : -1;
+    }
+
+    /** One line per recorded phase: ms since boot and ms since the earliest recorded phase. */
+    String describe() {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < NAMES.length; i++) {
+            long t = at.get(i);
+            if (t > 0) first = Math.min(first, t);
+        }
+        if (first == Long.MAX_VALUE) return "Startup: not recorded";
+
+        StringBuilder sb = new StringBuilder("Startup (ms since boot, +ms):");
+        for (int i = 0; i < NAMES.length; i++) {
+            long t = at.get(i);
+            if (t <= 0) continue;
+            sb.append("\n  ").append(NAMES[i]).append(": ").append(t).append(" (+").append(t - first).append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package com.mine.autolight;
+
+import android.os.Build;
+import android.os.Trace;
+
+import com.mine.autolight.core.Tracer;
+
+/**
+ * {@link Tracer} on android.os.Trace, for Perfetto / systrace captures.
+ * Counters need API 29 and are dropped on older releases.
+ */
+final class SystemTracer implements Tracer {
+
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+
+    @Override
+    public void counter(String name, long value) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) Trace.setCounter(name, value);
+    }
+}
@@ -0,0 +1,75 @@
+package com.mine.autolight;
+
+/**
+ * Fixed-size ring of the most recent events for the live graph: parallel primitive
+ * arrays, written on the worker thread and copied out by the UI. Subscribed to
+ * {@link LightControl} only while someone is watching.
+ */
+final class TelemetryRing implements LightControl.LiveListener {
+
+    private final int capacity;
+    private final long[] times;
+    private final float[] raw;
+    private final float[] filtered;
+    private final int[] brightness;
+
+    // Events written so far; slot = index % capacity. Published after the slot is filled.
+    private volatile long written = 0;
+    private volatile Runnable onData;
+
+    TelemetryRing(int capacity) {
+        this.capacity = capacity;
+        times = new long[capacity];
+        raw = new float[capacity];
+        filtered = new float[capacity];
+        brightness = new int[capacity];
+    }
+
+    int capacity() { return capacity; }
+
+    /** Called from the worker thread after each new event; null for none. */
+    void setOnData(Runnable onData) {
+        this.onData = onData;
+    }
+
+    @Override
+    public void onLiveSample(long timeMs, float rawLux, float filteredLux, int brightnessPercent) {
+        long n = written;
+        int slot = (int) (n % capacity);
+        times[slot] = timeMs;
+        raw[slot] = rawLux;
+        filtered[slot] = filteredLux;
+        brightness[slot] = brightnessPercent;
+        written = n + 1;
+        Runnable r = onData;
+        if (r != null) r.run();
+    }
+
+    /**
+     * Copies the retained events, oldest first, into the given arrays (at least
+     * {@link #capacity} long) and returns how many were copied. Events overwritten
+     * while copying are dropped from the front.
+     */
+    int copyTo(long[] t, float[] r, float[] f, int[] b) {
+        long end = written;
+        long start = Math.max(0, end - capacity);
+        int n = 0;
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i % capacity);
+            t[n] = times[slot];
+            r[n] = raw[slot];
+            f[n] = filtered[slot];
+            b[n] = brightness[slot];
+            n++;
+        }
+        // Slots the writer reached meanwhile, including one it may be filling now, can be torn
+        long overwritten = written + 1 - capacity - start;
+        if (overwritten <= 0) return n;
+        int drop = (int) Math.min(n, overwritten);
+        System.arraycopy(t, drop, t, 0, n - drop);
+        System.arraycopy(r, drop, r, 0, n - drop);
+        System.arraycopy(f, drop, f, 0, n - drop);
+        System.arraycopy(b, drop, b, 0, n - drop);
+        return n - drop;
+    }
+}
@@ -0,0 +1,125 @@
+package com.mine.autolight;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scrolling graph of raw lux, filtered lux (log scale, 1 to 100k) and applied brightness
+ * (percent) over the last {@link #SPAN_MS}. New data only requests a frame; the ring is
+ * copied at most once per Choreographer frame, and drawing reuses preallocated buffers.
+ */
+public class TelemetryView extends View implements Choreographer.FrameCallback {
+
+    private static final long SPAN_MS = 60000;
+    private static final float LOG_LUX_MAX = 5f;
+
+    private TelemetryRing source;
+    private final AtomicBoolean frameRequested = new AtomicBoolean(false);
+    private final Runnable requestFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+
+    private long[] times = new long[0];
+    private float[] raw = new float[0];
+    private float[] filtered = new float[0];
+    private int[] brightness = new int[0];
+    private float[] lines = new float[0];
+    private int count = 0;
+
+    private final Paint rawPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint filteredPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint brightnessPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public TelemetryView(Context context) {
+        super(context);
+        init();
+    }
+
+    public TelemetryView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        rawPaint.setColor(Color.GRAY);
+        rawPaint.setStrokeWidth(1f);
+        filteredPaint.setColor(Color.BLUE);
+        filteredPaint.setStrokeWidth(3f);
+        brightnessPaint.setColor(Color.rgb(255, 140, 0));
+        brightnessPaint.setStrokeWidth(3f);
+    }
+
+    /** Main thread only. Null detaches. */
+    void setSource(TelemetryRing ring) {
+        source = ring;
+        if (ring != null && times.length != ring.capacity()) {
+            int n = ring.capacity();
+            times = new long[n];
+            raw = new float[n];
+            filtered = new float[n];
+            brightness = new int[n];
+            lines = new float[4 * n];
+        }
+        count = 0;
+        onData();
+    }
+
+    /** Called from any thread when the ring has new data; coalesced to one frame. */
+    void onData() {
+        if (frameRequested.compareAndSet(false, true)) post(requestFrame);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameRequested.set(false);
+        TelemetryRing ring = source;
+        count = (ring != null) ? ring.copyTo(times, raw, filtered, brightness) : 0;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (count < 2) return;
+        float w = getWidth();
+        float h = getHeight();
+        long end = times[count - 1];
+
+        drawLux(canvas, raw, end, w, h, rawPaint);
+        drawLux(canvas, filtered, end, w, h, filteredPaint);
+
+        int k = 0;
+        for (int i = 1; i < count; i++) {
+            lines[k++] = x(times[i - 1], end, w);
+            lines[k++] = h - brightness[i - 1] / 100f * h;
+            lines[k++] = x(times[i], end, w);
+            lines[k++] = h - brightness[i] / 100f * h;
+        }
+        canvas.drawLines(lines, 0, k, brightnessPaint);
+    }
+
+    private void drawLux(Canvas canvas, float[] lux, long end, float w, float h, Paint paint) {
+        int k = 0;
+        for (int i = 1; i < count; i++) {
+            lines[k++] = x(times[i - 1], end, w);
+            lines[k++] = y(lux[i - 1], h);
+            lines[k++] = x(times[i], end, w);
+            lines[k++] = y(lux[i], h);
+        }
+        canvas.drawLines(lines, 0, k, paint);
+    }
+
+    private static float x(long time, long end, float w) {
+        return w - (float) (end - time) / SPAN_MS * w;
+    }
+
+    private static float y(float lux, float h) {
+        float v = (float) Math.log10(Math.max(1f, lux)) / LOG_LUX_MAX;
+        return h - Math.min(1f, v) * h;
+    }
+}
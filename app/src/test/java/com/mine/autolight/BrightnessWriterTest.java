@@ -0,0 +1,124 @@
+package com.mine.autolight;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.mine.autolight.core.VirtualClock;
+
+/** Coalescing and rate limiting of brightness writes, on a virtual clock. */
+public class BrightnessWriterTest {
+
+    private static final long MIN_INTERVAL_MS = 100;
+
+    private final VirtualClock clock = new VirtualClock(1000);
+    private int[] puts = new int[0];
+    private long[] putTimes = new long[0];
+    private long lastLatencyNanos = -1;
+
+    private final BrightnessWriter writer = new BrightnessWriter(this::put, clock, clock,
+            () -> clock.now() * 1000000L, MIN_INTERVAL_MS);
+
+    {
+        writer.setListener((value, time, latencyNanos) -> lastLatencyNanos = latencyNanos);
+    }
+
+    private void put(int value) {
+        puts = Arrays.copyOf(puts, puts.length + 1);
+        putTimes = Arrays.copyOf(putTimes, putTimes.length + 1);
+        puts[puts.length - 1] = value;
+        putTimes[putTimes.length - 1] = clock.now();
+    }
+
+    private void write(int value) {
+        writer.write(value, clock.now() * 1000000L);
+    }
+
+    @Test
+    public void duplicateValueIsSuppressed() {
+        write(80);
+        clock.advanceBy(5000);
+        write(80);
+        clock.advanceBy(5000);
+
+        assertArrayEquals(new int[] { 80 }, puts);
+        assertEquals(1, writer.getWritesIssued());
+        assertEquals(1, writer.getWritesSuppressed());
+    }
+
+    @Test
+    public void burstCollapsesToOneDelayedCommitOfItsLastValue() {
+        write(10);
+        for (int value = 11; value <= 15; value++) {
+            clock.advanceBy(10);
+            write(value);
+        }
+        assertArrayEquals("only the first write goes out at once", new int[] { 10 }, puts);
+
+        clock.advanceBy(1000);
+        assertArrayEquals(new int[] { 10, 15 }, puts);
+        assertEquals("committed one interval after the first", 1000 + MIN_INTERVAL_MS, putTimes[1]);
+        assertEquals(2, writer.getWritesIssued());
+        assertEquals(4, writer.getWritesSuppressed());
+        // From the decision on 15 at 1050 to its commit at 1100
+        assertEquals(50 * 1000000L, lastLatencyNanos);
+    }
+
+    @Test
+    public void burstEndingOnTheCommittedValueWritesNothing() {
+        write(40);
+        clock.advanceBy(20);
+        write(60);
+        clock.advanceBy(20);
+        write(40);
+        clock.advanceBy(1000);
+
+        assertArrayEquals(new int[] { 40 }, puts);
+        assertEquals(2, writer.getWritesSuppressed());
+    }
+
+    @Test
+    public void writesAfterTheIntervalGoOutAtOnce() {
+        write(20);
+        clock.advanceBy(MIN_INTERVAL_MS);
+        write(30);
+        assertArrayEquals(new int[] { 20, 30 }, puts);
+        assertEquals(0, clock.pending());
+    }
+
+    @Test
+    public void invalidateForcesTheNextWrite() {
+        write(50);
+        clock.advanceBy(5000);
+        writer.invalidate();
+        write(50);
+
+        assertArrayEquals(new int[] { 50, 50 }, puts);
+        assertEquals(0, writer.getWritesSuppressed());
+    }
+
+    @Test
+    public void flushNowCommitsThePendingValue() {
+        write(10);
+        clock.advanceBy(30);
+        write(20);
+        writer.flushNow();
+
+        assertArrayEquals(new int[] { 10, 20 }, puts);
+        assertEquals(1030, putTimes[1]);
+        assertEquals(0, clock.pending());
+        writer.flushNow();
+        assertEquals(2, puts.length);
+    }
+
+    @Test
+    public void zeroIntervalNeverDelays() {
+        writer.setMinIntervalMs(0);
+        for (int value = 1; value <= 5; value++) write(value);
+        assertArrayEquals(new int[] { 1, 2, 3, 4, 5 }, puts);
+        assertEquals(0, clock.pending());
+    }
+}
@@ -0,0 +1,173 @@
+package com.mine.autolight;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Migration from the old SharedPreferences to the binary settings file, on a plain JVM. */
+public class MySettingsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final SettingsStore.Logger quiet = new SettingsStore.Logger() {
+        @Override public void warn(String message) { }
+        @Override public void error(String message) { }
+    };
+
+    private final Legacy legacy = new Legacy();
+
+    /** A fresh store on the same directory, as the next process would open it. */
+    private SettingsStore open() {
+        return new SettingsStore(folder.getRoot(), Runnable::run, quiet);
+    }
+
+    private File file() { return new File(folder.getRoot(), "settings.bin"); }
+
+    private void userPreferences() {
+        legacy.settings.values.put("mode", Constants.WORK_MODE_ALWAYS);
+        legacy.settings.values.put("windowMs", 4500);
+        legacy.settings.values.put("hysteresisThreshold", 0.25f);
+        legacy.settings.values.put("curveLux", "1,50,500,5000,50000");
+        legacy.settings.values.put("curvePercent", "2,10,40,70,90");
+        legacy.enabled.values.put(Constants.PREF_ENABLED_KEY, false);
+    }
+
+    private static void assertUserSettings(MySettings s) {
+        assertEquals(Constants.WORK_MODE_ALWAYS, s.mode);
+        assertEquals(4500, s.windowMs);
+        assertEquals(0.25f, s.hysteresisThreshold, 0f);
+        assertArrayEquals(new int[] { 1, 50, 500, 5000, 50000 }, s.curveLux);
+        assertArrayEquals(new int[] { 2, 10, 40, 70, 90 }, s.curvePercent);
+        assertFalse(s.serviceEnabled);
+    }
+
+    @Test
+    public void firstRunMigratesThePreferencesOnce() {
+        userPreferences();
+        SettingsStore store = open();
+
+        assertUserSettings(new MySettings(store, legacy));
+        assertEquals(1, legacy.deletes);
+        assertTrue(store.describeLoad(), store.describeLoad().contains("migrated"));
+
+        // Later readers in the same process get the saved image, not the preferences again
+        assertUserSettings(new MySettings(store, legacy));
+        // And so does the next process, with the preferences gone
+        assertUserSettings(new MySettings(open(), legacy));
+        assertEquals(1, legacy.deletes);
+    }
+
+    @Test
+    public void fourPointCurveKeysFromBeforeCurvesAreMigrated() {
+        int[] lux = { 2, 200, 2000, 20000 };
+        int[] percent = { 5, 20, 45, 75 };
+        for (int i = 0; i < 4; i++) {
+            legacy.settings.values.put("l" + (i + 1), lux[i]);
+            legacy.settings.values.put("b" + (i + 1), percent[i]);
+        }
+
+        new MySettings(open(), legacy);
+        MySettings next = new MySettings(open(), legacy);
+        assertArrayEquals(lux, next.curveLux);
+        assertArrayEquals(percent, next.curvePercent);
+    }
+
+    @Test
+    public void damagedFileKeepsThePreferences() throws IOException {
+        userPreferences();
+        Files.write(file().toPath(), new byte[] { 1, 2, 3 });
+
+        // Runs on what the preferences still hold, but they are not deleted
+        assertUserSettings(new MySettings(open(), legacy));
+        assertEquals(0, legacy.deletes);
+        assertTrue(new File(folder.getRoot(), "settings.bin.bad").exists());
+    }
+
+    @Test
+    public void newerFileIsNeitherMigratedOverNorSaved() throws IOException {
+        userPreferences();
+        ByteBuffer newer = ByteBuffer.allocate(SettingsStore.IMAGE_BYTES + 16).order(ByteOrder.LITTLE_ENDIAN);
+        newer.putInt(0, SettingsStore.MAGIC);
+        newer.putInt(4, SettingsStore.VERSION + 1);
+        byte[] bytes = newer.array();
+        Files.write(file().toPath(), bytes);
+
+        MySettings settings = new MySettings(open(), legacy);
+        assertUserSettings(settings);
+        settings.windowMs = 1000;
+        settings.save();
+
+        assertEquals(0, legacy.deletes);
+        assertArrayEquals(bytes, Files.readAllBytes(file().toPath()));
+        // The change still applies to this process
+        assertEquals(1000, settings.windowMs);
+    }
+
+    @Test
+    public void savedChangesReachTheNextProcess() {
+        MySettings settings = new MySettings(open(), legacy);
+        settings.windowMs = 6000;
+        settings.smoothingMode = 3;
+        settings.curveLux = new int[] { 1, 10, 100 };
+        settings.curvePercent = new int[] { 1, 30, 60 };
+        settings.save();
+
+        MySettings next = new MySettings(open(), legacy);
+        assertEquals(6000, next.windowMs);
+        assertEquals(3, next.smoothingMode);
+        assertArrayEquals(new int[] { 1, 10, 100 }, next.curveLux);
+        assertArrayEquals(new int[] { 1, 30, 60 }, next.curvePercent);
+    }
+
+    /** The two old preference files; deleting empties them, as deleting the files would. */
+    private static final class Legacy implements MySettings.LegacyPreferences {
+        final MapPreferences settings = new MapPreferences();
+        final MapPreferences enabled = new MapPreferences();
+        int deletes = 0;
+
+        @Override public SharedPreferences settings() { return settings; }
+        @Override public SharedPreferences enabled() { return enabled; }
+
+        @Override
+        public void delete() {
+            settings.values.clear();
+            enabled.values.clear();
+            deletes++;
+        }
+    }
+
+    /** Read-only SharedPreferences over a map. */
+    private static final class MapPreferences implements SharedPreferences {
+        final Map<String, Object> values = new HashMap<>();
+
+        @Override public Map<String, ?> getAll() { return new HashMap<>(values); }
+        @Override public String getString(String key, String defValue) { return (String) values.getOrDefault(key, defValue); }
+        @SuppressWarnings("unchecked")
+        @Override public Set<String> getStringSet(String key, Set<String> defValues) { return (Set<String>) values.getOrDefault(key, defValues); }
+        @Override public int getInt(String key, int defValue) { return (Integer) values.getOrDefault(key, defValue); }
+        @Override public long getLong(String key, long defValue) { return (Long) values.getOrDefault(key, defValue); }
+        @Override public float getFloat(String key, float defValue) { return (Float) values.getOrDefault(key, defValue); }
+        @Override public boolean getBoolean(String key, boolean defValue) { return (Boolean) values.getOrDefault(key, defValue); }
+        @Override public boolean contains(String key) { return values.containsKey(key); }
+        @Override public Editor edit() { throw new UnsupportedOperationException(); }
+        @Override public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) { }
+        @Override public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) { }
+    }
+}
@@ -0,0 +1,171 @@
+package com.mine.autolight;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Loading, saving and setting aside the binary settings file, on a plain JVM: saves run
+ * inline and warnings are collected instead of logged.
+ */
+public class SettingsStoreTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> warnings = new ArrayList<>();
+
+    private final SettingsStore.Logger log = new SettingsStore.Logger() {
+        @Override public void warn(String message) { warnings.add(message); }
+        @Override public void error(String message) { warnings.add(message); }
+    };
+
+    /** A fresh store on the same directory, as the next process would open it. */
+    private SettingsStore open() {
+        return new SettingsStore(folder.getRoot(), Runnable::run, log);
+    }
+
+    private File file() { return new File(folder.getRoot(), "settings.bin"); }
+    private File setAside() { return new File(folder.getRoot(), "settings.bin.bad"); }
+
+    private static ByteBuffer image(int mode, int windowMs) {
+        ByteBuffer b = SettingsStore.newImage();
+        b.putInt(SettingsStore.MODE, mode);
+        b.putInt(SettingsStore.WINDOW_MS, windowMs);
+        b.putInt(SettingsStore.CURVE_COUNT, 2);
+        return b;
+    }
+
+    private void saveValidFile() {
+        open().write(image(Constants.WORK_MODE_ALWAYS, 4000), null);
+        assertTrue(file().exists());
+    }
+
+    @Test
+    public void savedImageIsReadBackByTheNextProcess() {
+        SettingsStore first = open();
+        assertTrue(first.isFirstRun());
+        assertNull(first.image());
+
+        boolean[] saved = { false };
+        first.write(image(Constants.WORK_MODE_ALWAYS, 4000), () -> saved[0] = true);
+        assertTrue(saved[0]);
+        // The saving process sees its own image at once
+        assertEquals(4000, first.image().getInt(SettingsStore.WINDOW_MS));
+
+        SettingsStore next = open();
+        assertFalse(next.isFirstRun());
+        assertEquals(Constants.WORK_MODE_ALWAYS, next.image().getInt(SettingsStore.MODE));
+        assertEquals(4000, next.image().getInt(SettingsStore.WINDOW_MS));
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void badChecksumIsSetAside() throws IOException {
+        saveValidFile();
+        byte[] bytes = Files.readAllBytes(file().toPath());
+        bytes[SettingsStore.WINDOW_MS] ^= 1;
+        assertSetAside(bytes);
+    }
+
+    @Test
+    public void shortFileIsSetAside() throws IOException {
+        saveValidFile();
+        byte[] bytes = Files.readAllBytes(file().toPath());
+        // Shorter than the header, and a header whose image runs past the end of the file
+        assertSetAside(Arrays.copyOf(bytes, SettingsStore.HEADER_BYTES - 4));
+        assertSetAside(Arrays.copyOf(bytes, SettingsStore.IMAGE_BYTES - 4));
+    }
+
+    @Test
+    public void badMagicIsSetAside() throws IOException {
+        saveValidFile();
+        byte[] bytes = Files.readAllBytes(file().toPath());
+        bytes[0] = 'X';
+        assertSetAside(bytes);
+    }
+
+    private void assertSetAside(byte[] damaged) throws IOException {
+        Files.write(file().toPath(), damaged);
+        warnings.clear();
+
+        SettingsStore store = open();
+        assertNull(store.image());
+        // Not a first run: nothing may be migrated over what the user had
+        assertFalse(store.isFirstRun());
+        assertFalse(file().exists());
+        assertArrayEquals(damaged, Files.readAllBytes(setAside().toPath()));
+        assertEquals(1, warnings.size());
+        assertTrue(store.describeLoad(), store.describeLoad().contains("set aside"));
+
+        // The next save starts a good file again
+        store.write(image(Constants.WORK_MODE_PORTRAIT, 2000), null);
+        assertEquals(2000, open().image().getInt(SettingsStore.WINDOW_MS));
+    }
+
+    @Test
+    public void newerVersionIsNeverSavedOver() throws IOException {
+        saveValidFile();
+        byte[] bytes = Files.readAllBytes(file().toPath());
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, SettingsStore.VERSION + 1);
+        Files.write(file().toPath(), bytes);
+
+        SettingsStore store = open();
+        assertNull(store.image());
+        assertFalse(store.isFirstRun());
+        assertFalse(setAside().exists());
+
+        boolean[] saved = { false };
+        store.write(image(Constants.WORK_MODE_PORTRAIT, 2000), () -> saved[0] = true);
+        assertFalse(saved[0]);
+        assertArrayEquals(bytes, Files.readAllBytes(file().toPath()));
+        // This process still runs with what it saved
+        assertEquals(2000, store.image().getInt(SettingsStore.WINDOW_MS));
+        assertTrue(store.describeLoad(), store.describeLoad().contains("not saving"));
+    }
+
+    @Test
+    public void upgradeKeepsTheOlderPayloadAndSealsTheCurrentLayout() {
+        // An older layout is a prefix of the current one, here one that ended before the curve
+        ByteBuffer old = ByteBuffer.allocate(SettingsStore.CURVE_LUX).order(ByteOrder.LITTLE_ENDIAN);
+        old.putInt(0, SettingsStore.MAGIC);
+        old.putInt(4, SettingsStore.VERSION);
+        old.putInt(8, SettingsStore.CURVE_LUX);
+        old.putInt(SettingsStore.MODE, Constants.WORK_MODE_LANDSCAPE);
+        old.putInt(SettingsStore.WINDOW_MS, 5000);
+        old.putFloat(SettingsStore.HYSTERESIS_THRESHOLD, 0.3f);
+
+        ByteBuffer next = SettingsStore.upgrade(old, SettingsStore.VERSION);
+        assertEquals(SettingsStore.IMAGE_BYTES, next.capacity());
+        assertEquals(SettingsStore.MAGIC, next.getInt(0));
+        assertEquals(SettingsStore.VERSION, next.getInt(4));
+        assertEquals(SettingsStore.IMAGE_BYTES, next.getInt(8));
+        assertEquals(crc(next), next.getInt(12));
+        assertEquals(Constants.WORK_MODE_LANDSCAPE, next.getInt(SettingsStore.MODE));
+        assertEquals(5000, next.getInt(SettingsStore.WINDOW_MS));
+        assertEquals(0.3f, next.getFloat(SettingsStore.HYSTERESIS_THRESHOLD), 0f);
+        assertEquals(0, next.getInt(SettingsStore.CURVE_LUX));
+    }
+
+    private static int crc(ByteBuffer image) {
+        CRC32 crc = new CRC32();
+        for (int i = SettingsStore.HEADER_BYTES; i < image.capacity(); i++) crc.update(image.get(i));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,39 @@
+package com.mine.autolight.core;
+
+import java.util.Random;
+
+/** Deterministic synthetic lux input shared by the benchmarks. */
+final class BenchTraces {
+
+    static final int LENGTH = 4096; // power of two so indices wrap with a mask
+
+    private BenchTraces() {}
+
+    /** Indoor-like noise around a level that steps between rooms every few hundred samples. */
+    static float[] indoor(long seed) {
+        Random rnd = new Random(seed);
+        float[] out = new float[LENGTH];
+        float level = 300f;
+        for (int i = 0; i < LENGTH; i++) {
+            if (i % 512 == 0) level = 20f + rnd.nextFloat() * 5000f;
+            out[i] = Math.max(0f, level * (1f + (float) rnd.nextGaussian() * 0.08f));
+        }
+        return out;
+    }
+
+    /** Integer lux values spread log-uniformly over the curve's 0..200000 range. */
+    static int[] curveSweep(long seed) {
+        Random rnd = new Random(seed);
+        int[] out = new int[LENGTH];
+        for (int i = 0; i < LENGTH; i++) out[i] = (int) Math.pow(10, rnd.nextDouble() * Math.log10(200001)) - 1;
+        return out;
+    }
+
+    static PipelineConfig config(long medianWindowMs, int windowMs) {
+        PipelineConfig c = new PipelineConfig();
+        c.mode = PipelineConfig.MODE_ALWAYS;
+        c.medianWindowMs = medianWindowMs;
+        c.windowMs = windowMs;
+        return c;
+    }
+}
@@ -0,0 +1,62 @@
+package com.mine.autolight.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Curve mapping: compiled step table against direct interpolation, per point count and interpolation. */
+@State(Scope.Thread)
+public class CurveBenchmark {
+
+    @Param({ "4", "32" })
+    public int points;
+
+    @Param({ "0", "1" })
+    public int interpolation;
+
+    private int[] curveLux;
+    private int[] curvePercent;
+    private double[] tangents;
+
+    private BrightnessCurve curve;
+    private int[] sweep;
+    private int i;
+
+    @Setup
+    public void setUp() {
+        if (points == 4) {
+            curveLux = new int[] { 1, 1000, 10000, 100000 };
+            curvePercent = new int[] { 1, 15, 30, 60 };
+        } else {
+            // Log-spaced lux from 1 to 100000 with a gently rising percent
+            curveLux = new int[points];
+            curvePercent = new int[points];
+            for (int p = 0; p < points; p++) {
+                curveLux[p] = (int) Math.round(Math.pow(10, 5.0 * p / (points - 1)));
+                curvePercent[p] = 1 + (int) Math.round(99 * Math.pow((double) p / (points - 1), 1.5));
+            }
+            for (int p = 1; p < points; p++) curveLux[p] = Math.max(curveLux[p], curveLux[p - 1] + 1);
+        }
+        tangents = (interpolation == PipelineConfig.CURVE_MONOTONE) ? BrightnessCurve.tangents(curveLux, curvePercent) : null;
+        curve = BrightnessCurve.compile(curveLux, curvePercent, interpolation, 255);
+        sweep = BenchTraces.curveSweep(4);
+    }
+
+    @Benchmark
+    public int compiled() {
+        return curve.valueOf(curve.step(sweep[i++ & (BenchTraces.LENGTH - 1)]));
+    }
+
+    @Benchmark
+    public int reference() {
+        int pct = BrightnessCurve.referencePercent(curveLux, curvePercent, tangents, sweep[i++ & (BenchTraces.LENGTH - 1)]);
+        return BrightnessCurve.systemValue(pct, 255);
+    }
+
+    @Benchmark
+    public BrightnessCurve compile() {
+        return BrightnessCurve.compile(curveLux, curvePercent, interpolation, 255);
+    }
+}
@@ -0,0 +1,35 @@
+package com.mine.autolight.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** One median-filter step with the window full, per env-filter level and sensor rate. */
+@State(Scope.Thread)
+public class MedianFilterBenchmark {
+
+    @Param({ "1000", "2000", "3000" })
+    public long medianWindowMs;
+
+    @Param({ "20", "200" })
+    public long samplePeriodMs;
+
+    private SlidingMedian median;
+    private float[] trace;
+    private int i;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        median = new SlidingMedian(medianWindowMs);
+        trace = BenchTraces.indoor(1);
+        for (i = 0; now <= medianWindowMs * 2; i++) median.filter(trace[i & (BenchTraces.LENGTH - 1)], now += samplePeriodMs);
+    }
+
+    @Benchmark
+    public float filter() {
+        return median.filter(trace[i++ & (BenchTraces.LENGTH - 1)], now += samplePeriodMs);
+    }
+}
@@ -0,0 +1,60 @@
+package com.mine.autolight.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Full per-event cost of LuxPipeline.onSample in ALWAYS mode, for every filter level and window. */
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    @Param({ "1000", "2000", "3000" })
+    public long medianWindowMs;
+
+    @Param({ "500", "1000", "1500", "2000", "2500", "3000", "3500", "4000", "4500", "5000" })
+    public int windowMs;
+
+    @Param({ "20", "200" })
+    public long samplePeriodMs;
+
+    private LuxPipeline pipeline;
+    private float[] trace;
+    private int i;
+    private long now;
+    private int lastWrite;
+
+    private final SensorSource sensor = new SensorSource() {
+        @Override public boolean isAvailable() { return true; }
+        @Override public boolean hasFifo() { return false; }
+        @Override public void register(int samplingPeriodUs, int maxReportLatencyUs) { }
+        @Override public void unregister() { }
+    };
+
+    // ALWAYS mode never arms a timer
+    private final Scheduler scheduler = new Scheduler() {
+        @Override public void postDelayed(Runnable task, long delayMs) { }
+        @Override public void cancel(Runnable task) { }
+    };
+
+    @Setup
+    public void setUp() {
+        pipeline = new LuxPipeline(() -> now, scheduler, sensor, value -> lastWrite = value,
+                ConfigSnapshot.of(BenchTraces.config(medianWindowMs, windowMs)), 255);
+        trace = BenchTraces.indoor(5);
+        pipeline.start();
+        while (now <= Math.max(medianWindowMs, windowMs) * 2) step();
+    }
+
+    @Benchmark
+    public void onSample(Blackhole bh) {
+        step();
+        bh.consume(lastWrite);
+    }
+
+    private void step() {
+        pipeline.onSample(trace[i++ & (BenchTraces.LENGTH - 1)], now += samplePeriodMs);
+    }
+}
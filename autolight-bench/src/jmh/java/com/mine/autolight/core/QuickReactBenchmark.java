@@ -0,0 +1,40 @@
+package com.mine.autolight.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Quick-react detection against a fixed applied level: debounce engine per env-filter level, and change-point. */
+@State(Scope.Thread)
+public class QuickReactBenchmark {
+
+    @Param({ "600", "1200", "2000" })
+    public long debounceMs;
+
+    private final QuickReactDetector detector = new QuickReactDetector();
+    private final ChangePointDetector changePoint = new ChangePointDetector();
+    private ConfigSnapshot config;
+    private float[] trace;
+    private int i;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        PipelineConfig c = new PipelineConfig();
+        c.debounceMs = debounceMs;
+        config = ConfigSnapshot.of(c);
+        trace = BenchTraces.indoor(3);
+    }
+
+    @Benchmark
+    public boolean detect() {
+        return detector.update(trace[i++ & (BenchTraces.LENGTH - 1)], 300f, now += 200, config);
+    }
+
+    @Benchmark
+    public boolean detectChangePoint() {
+        return changePoint.update(trace[i++ & (BenchTraces.LENGTH - 1)], 300f, now += 200, config);
+    }
+}
@@ -0,0 +1,64 @@
+package com.mine.autolight.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Per-event cost of each smoothing stage, per smoothing duration and sensor rate. */
+@State(Scope.Thread)
+public class WindowSmoothingBenchmark {
+
+    @Param({ "500", "1000", "1500", "2000", "2500", "3000", "3500", "4000", "4500", "5000" })
+    public int windowMs;
+
+    @Param({ "20", "200" })
+    public long samplePeriodMs;
+
+    private LuxWindow window;
+    private LuxStage exponential;
+    private LuxStage kalman;
+    private float[] trace;
+    private int i;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        window = new LuxWindow();
+        PipelineConfig c = new PipelineConfig();
+        c.windowMs = windowMs;
+        exponential = new ExponentialSmoother(ConfigSnapshot.of(c));
+        kalman = new KalmanSmoother(ConfigSnapshot.of(c));
+        trace = BenchTraces.indoor(2);
+        while (now <= windowMs * 2L) smooth();
+    }
+
+    @Benchmark
+    public float smooth() {
+        now += samplePeriodMs;
+        window.add(now, trace[i++ & (BenchTraces.LENGTH - 1)]);
+        window.expire(now, windowMs);
+        return window.sum() / window.size();
+    }
+
+    @Benchmark
+    public float smoothTimeWeighted() {
+        now += samplePeriodMs;
+        window.add(now, trace[i++ & (BenchTraces.LENGTH - 1)]);
+        window.expire(now, windowMs);
+        return window.timeWeightedAverage(now, windowMs);
+    }
+
+    @Benchmark
+    public float smoothExponential() {
+        now += samplePeriodMs;
+        return exponential.filter(trace[i++ & (BenchTraces.LENGTH - 1)], now);
+    }
+
+    @Benchmark
+    public float smoothKalman() {
+        now += samplePeriodMs;
+        return kalman.filter(trace[i++ & (BenchTraces.LENGTH - 1)], now);
+    }
+}
@@ -0,0 +1,159 @@
+package com.mine.autolight.core;
+
+import java.util.Arrays;
+
+/**
+ * Lux to brightness mapping compiled from up to {@link PipelineConfig#MAX_CURVE_POINTS}
+ * curve points, interpolated in log-lux either linearly or with a monotone cubic
+ * (Fritsch-Carlson) spline. Either way the curve is a step function over integer lux,
+ * so it is stored as the sorted lux values where the brightness percent changes.
+ * Evaluation is a short binary search over those steps with no floating-point math;
+ * results are identical to {@link #referencePercent} by construction.
+ */
+final class BrightnessCurve {
+
+    private final int[] stepLux;      // first lux of each step, ascending
+    private final int[] stepPercent;  // brightness percent for the step
+    private final int[] stepValue;    // final Settings.System value for the step
+
+    private BrightnessCurve(int[] stepLux, int[] stepPercent, int[] stepValue) {
+        this.stepLux = stepLux;
+        this.stepPercent = stepPercent;
+        this.stepValue = stepValue;
+    }
+
+    /** Compiles the curve through points ({@code l[i]} lux, {@code b[i]} percent), lux ascending. */
+    static BrightnessCurve compile(int[] l, int[] b, int interpolation, int systemMax) {
+        double[] m = (interpolation == PipelineConfig.CURVE_MONOTONE) ? tangents(l, b) : null;
+        int[] lux = new int[16];
+        int[] pct = new int[16];
+        int n = 0;
+
+        // Between consecutive curve points the segment is fixed, and both interpolations are monotone there
+        int last = l.length - 1;
+        int[] cuts = Arrays.copyOf(l, l.length);
+        cuts[last] = l[last] - 1;
+        Arrays.sort(cuts);
+        int from = 0;
+        for (int c = 0; c <= cuts.length && from >= 0; c++) {
+            int to = (c < cuts.length) ? cuts[c] : Integer.MAX_VALUE;
+            if (to < from) continue;
+            int x = from;
+            while (true) {
+                int p = referencePercent(l, b, m, x);
+                if (n == 0 || pct[n - 1] != p) {
+                    if (n == lux.length) {
+                        lux = Arrays.copyOf(lux, n * 2);
+                        pct = Arrays.copyOf(pct, n * 2);
+                    }
+                    lux[n] = x;
+                    pct[n] = p;
+                    n++;
+                }
+                if (x == to || referencePercent(l, b, m, to) == p) break;
+                // Smallest lux in (x, to] where the percent moves off p
+                int lo = x, hi = to;
+                while (hi - lo > 1) {
+                    int mid = lo + (hi - lo) / 2;
+                    if (referencePercent(l, b, m, mid) == p) lo = mid; else hi = mid;
+                }
+                x = hi;
+            }
+            from = (to == Integer.MAX_VALUE) ? -1 : to + 1;
+        }
+
+        int[] val = new int[n];
+        for (int i = 0; i < n; i++) val[i] = systemValue(pct[i], systemMax);
+        return new BrightnessCurve(Arrays.copyOf(lux, n), Arrays.copyOf(pct, n), val);
+    }
+
+    /** Index of the step covering {@code luxValue}. */
+    int step(int luxValue) {
+        int lo = 0, hi = stepLux.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (stepLux[mid] <= luxValue) lo = mid; else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    int percentOf(int step) { return stepPercent[step]; }
+    int valueOf(int step) { return stepValue[step]; }
+
+    /** The log-lux linear interpolation; only used while compiling. */
+    static int referencePercent(int[] l, int[] b, int luxValue) {
+        return referencePercent(l, b, null, luxValue);
+    }
+
+    /**
+     * Percent at {@code luxValue}: linear in log-lux when {@code m} is null, otherwise the
+     * cubic Hermite spline with tangents {@code m} from {@link #tangents}.
+     */
+    static int referencePercent(int[] l, int[] b, double[] m, int luxValue) {
+        int last = l.length - 1;
+        if (luxValue <= l[0]) return b[0];
+        if (luxValue >= l[last]) return b[last];
+        // First point at or above the lux; the segment ends there
+        int lo = 1, hi = last;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (luxValue <= l[mid]) hi = mid; else lo = mid + 1;
+        }
+        float x1 = l[lo - 1], x2 = l[lo], y1 = b[lo - 1], y2 = b[lo];
+        double lx = Math.log10((double) luxValue + 1.0);
+        double lx1 = Math.log10((double) x1 + 1.0);
+        double lx2 = Math.log10((double) x2 + 1.0);
+        double t = (lx2 - lx1 == 0) ? 0 : (lx - lx1) / (lx2 - lx1);
+        t = Math.max(0.0, Math.min(1.0, t));
+        if (m == null) return (int) Math.round(y1 + (y2 - y1) * t);
+
+        double h = lx2 - lx1;
+        double t2 = t * t, t3 = t2 * t;
+        double y = (2 * t3 - 3 * t2 + 1) * y1 + (t3 - 2 * t2 + t) * h * m[lo - 1]
+                + (-2 * t3 + 3 * t2) * y2 + (t3 - t2) * h * m[lo];
+        return (int) Math.round(y);
+    }
+
+    /**
+     * Fritsch-Carlson tangents in percent per decade of lux: each segment of the spline
+     * stays between its two points, so the curve never overshoots or turns back.
+     */
+    static double[] tangents(int[] l, int[] b) {
+        int n = l.length;
+        double[] m = new double[n];
+        if (n < 2) return m;
+        double[] d = new double[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            double h = Math.log10((double) l[i + 1] + 1.0) - Math.log10((double) l[i] + 1.0);
+            d[i] = (h == 0) ? 0 : (b[i + 1] - b[i]) / h;
+        }
+        m[0] = d[0];
+        m[n - 1] = d[n - 2];
+        for (int i = 1; i < n - 1; i++) {
+            // Flat at local extrema, else the mean of the neighbouring secants
+            m[i] = (d[i - 1] * d[i] <= 0) ? 0 : (d[i - 1] + d[i]) / 2;
+        }
+        for (int i = 0; i < n - 1; i++) {
+            if (d[i] == 0) {
+                m[i] = 0;
+                m[i + 1] = 0;
+                continue;
+            }
+            double a = m[i] / d[i];
+            double c = m[i + 1] / d[i];
+            double s = a * a + c * c;
+            if (s > 9) {
+                double tau = 3 / Math.sqrt(s);
+                m[i] = tau * a * d[i];
+                m[i + 1] = tau * c * d[i];
+            }
+        }
+        return m;
+    }
+
+    static int systemValue(int brightnessPercent, int systemMax) {
+        // Force minimum if at the lowest setting
+        if (brightnessPercent <= 1) return 1;
+        return Math.max(1, Math.min(systemMax, Math.round((brightnessPercent / 100.0f) * systemMax)));
+    }
+}
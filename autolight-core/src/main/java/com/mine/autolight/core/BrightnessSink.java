@@ -0,0 +1,6 @@
+package com.mine.autolight.core;
+
+/** Receives the final system brightness value for each applied decision. */
+public interface BrightnessSink {
+    void write(int value);
+}
@@ -0,0 +1,76 @@
+package com.mine.autolight.core;
+
+/**
+ * Quick-react by sequential change-point test. Keeps Welford running mean and variance of
+ * log-lux since the current light level began, and two-sided CUSUM sums of the
+ * standardised deviation from it. Flicker around the level cancels out in the sums; a
+ * real step accumulates and is confirmed as soon as a sum crosses the threshold, often
+ * within two or three samples, instead of after a fixed debounce. A confirmed change
+ * snaps only if it is also as large as the lux and percent quick-react thresholds;
+ * either way the statistics restart at the new level. O(1) state and work per event.
+ */
+final class ChangePointDetector implements QuickReact {
+
+    // Allowed drift per sample, in standard deviations, before evidence accumulates
+    private static final double DRIFT = 0.5;
+    // One sample may add at most this much evidence, so a lone outlier never decides
+    private static final double MAX_STEP = 3.0;
+    // Noise floor for log-lux (about 5%), so a very steady level does not make every wobble significant
+    private static final double MIN_SIGMA = 0.05;
+    private static final double PENDING_EVIDENCE = 1.0;
+
+    private long n = 0;
+    private double mean = 0;
+    private double m2 = 0;
+    private double up = 0;
+    private double down = 0;
+
+    @Override
+    public boolean update(float filteredLux, float lastAppliedLux, long now, ConfigSnapshot config) {
+        // A reading that is not a number carries no evidence and must not poison the mean
+        if (!Float.isFinite(filteredLux)) return false;
+        double x = Math.log(Math.max(filteredLux, 1f));
+        if (n == 0) {
+            restart(x);
+            return false;
+        }
+
+        double sigma = (n > 1) ? Math.max(Math.sqrt(m2 / (n - 1)), MIN_SIGMA) : MIN_SIGMA;
+        double z = (x - mean) / sigma;
+        z = Math.max(-MAX_STEP, Math.min(MAX_STEP, z));
+        up = Math.max(0, up + z - DRIFT);
+        down = Math.max(0, down - z - DRIFT);
+
+        if (up > config.changePointThreshold || down > config.changePointThreshold) {
+            restart(x);
+            float gap = Math.abs(filteredLux - lastAppliedLux);
+            float percentChange = (lastAppliedLux == 0f) ? 100f : (gap / lastAppliedLux) * 100f;
+            return gap > config.quickReactLux && percentChange > config.quickReactPercent;
+        }
+
+        // Welford update of the current level
+        n++;
+        double d = x - mean;
+        mean += d / n;
+        m2 += d * (x - mean);
+        return false;
+    }
+
+    private void restart(double x) {
+        n = 1;
+        mean = x;
+        m2 = 0;
+        up = 0;
+        down = 0;
+    }
+
+    @Override
+    public boolean isPending() { return up > PENDING_EVIDENCE || down > PENDING_EVIDENCE; }
+
+    @Override
+    public void reset() {
+        n = 0;
+        up = 0;
+        down = 0;
+    }
+}
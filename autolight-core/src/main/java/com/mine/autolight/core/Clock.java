@@ -0,0 +1,6 @@
+package com.mine.autolight.core;
+
+/** Monotonic millisecond time source (elapsedRealtime on a device). */
+public interface Clock {
+    long now();
+}
@@ -0,0 +1,112 @@
+package com.mine.autolight.core;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of a {@link PipelineConfig}, taken once when settings change and then
+ * read on every sensor event without locks. A new one is handed over with
+ * {@link LuxPipeline#publish}.
+ */
+public final class ConfigSnapshot {
+
+    public final int mode;
+    private final int[] curveLux;
+    private final int[] curvePercent;
+    public final int curveInterpolation;
+
+    public final float hysteresisThreshold;
+    public final int absoluteThreshold;
+    public final int windowMs;
+    public final int smoothingMode;
+    public final int quickReactLux;
+    public final int quickReactPercent;
+    public final int preFilter;
+    public final long medianWindowMs;
+    public final long debounceMs;
+    public final int quickReactEngine;
+    public final float changePointThreshold;
+
+    public final int batchLatencyMs;
+    public final int batchLatencyUs;
+    public final boolean adaptiveSampling;
+    public final int warmStartMs;
+
+    private ConfigSnapshot(PipelineConfig c) {
+        mode = c.mode;
+        int n = c.curveLux.length;
+        if (n == 0 || n > PipelineConfig.MAX_CURVE_POINTS || c.curvePercent.length != n) {
+            throw new IllegalArgumentException("curve needs 1 to " + PipelineConfig.MAX_CURVE_POINTS
+                    + " lux/percent pairs, got " + n + "/" + c.curvePercent.length);
+        }
+        curveLux = c.curveLux.clone();
+        curvePercent = c.curvePercent.clone();
+        sortByLux(curveLux, curvePercent);
+        curveInterpolation = c.curveInterpolation;
+        hysteresisThreshold = c.hysteresisThreshold;
+        absoluteThreshold = c.absoluteThreshold;
+        windowMs = c.windowMs;
+        smoothingMode = c.smoothingMode;
+        quickReactLux = c.quickReactLux;
+        quickReactPercent = c.quickReactPercent;
+        preFilter = c.preFilter;
+        medianWindowMs = c.medianWindowMs;
+        debounceMs = c.debounceMs;
+        quickReactEngine = c.quickReactEngine;
+        changePointThreshold = c.changePointThreshold;
+        batchLatencyMs = c.batchLatencyMs;
+        batchLatencyUs = c.batchLatencyMs * 1000;
+        adaptiveSampling = c.adaptiveSampling;
+        warmStartMs = c.warmStartMs;
+    }
+
+    public static ConfigSnapshot of(PipelineConfig config) {
+        return new ConfigSnapshot(config);
+    }
+
+    /** An editable copy of these settings. */
+    PipelineConfig toConfig() {
+        PipelineConfig c = new PipelineConfig();
+        c.mode = mode;
+        c.curveLux = curveLux.clone();
+        c.curvePercent = curvePercent.clone();
+        c.curveInterpolation = curveInterpolation;
+        c.hysteresisThreshold = hysteresisThreshold;
+        c.absoluteThreshold = absoluteThreshold;
+        c.windowMs = windowMs;
+        c.smoothingMode = smoothingMode;
+        c.quickReactLux = quickReactLux;
+        c.quickReactPercent = quickReactPercent;
+        c.preFilter = preFilter;
+        c.medianWindowMs = medianWindowMs;
+        c.debounceMs = debounceMs;
+        c.quickReactEngine = quickReactEngine;
+        c.changePointThreshold = changePointThreshold;
+        c.batchLatencyMs = batchLatencyMs;
+        c.adaptiveSampling = adaptiveSampling;
+        c.warmStartMs = warmStartMs;
+        return c;
+    }
+
+    BrightnessCurve compileCurve(int systemMax) {
+        return BrightnessCurve.compile(curveLux, curvePercent, curveInterpolation, systemMax);
+    }
+
+    boolean sameCurve(ConfigSnapshot other) {
+        return Arrays.equals(curveLux, other.curveLux) && Arrays.equals(curvePercent, other.curvePercent)
+                && curveInterpolation == other.curveInterpolation;
+    }
+
+    // Insertion sort keeping equal lux in their given order; at most MAX_CURVE_POINTS entries
+    private static void sortByLux(int[] lux, int[] percent) {
+        for (int i = 1; i < lux.length; i++) {
+            int l = lux[i], p = percent[i], j = i - 1;
+            while (j >= 0 && lux[j] > l) {
+                lux[j + 1] = lux[j];
+                percent[j + 1] = percent[j];
+                j--;
+            }
+            lux[j + 1] = l;
+            percent[j + 1] = p;
+        }
+    }
+}
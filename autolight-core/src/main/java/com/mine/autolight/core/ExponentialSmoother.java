@@ -0,0 +1,48 @@
+package com.mine.autolight.core;
+
+/**
+ * Exponential moving average with a time constant of half the smoothing window, which
+ * gives about the same mean delay as the window average. The weight of each sample
+ * follows the time since the previous one, so uneven sensor rates do not bias it.
+ * Constant memory and work per event whatever the window length.
+ */
+final class ExponentialSmoother implements LuxStage {
+
+    private double tauMs;
+    private double value = 0;
+    private long lastTime = 0;
+    private int depth = 0;
+
+    ExponentialSmoother(ConfigSnapshot config) {
+        configure(config);
+    }
+
+    @Override
+    public float filter(float lux, long now) {
+        if (depth == 0) {
+            reset(now, lux);
+            return lux;
+        }
+        long dt = Math.max(0, now - lastTime);
+        double alpha = 1.0 - Math.exp(-dt / tauMs);
+        value += alpha * (lux - value);
+        lastTime = now;
+        if (depth < Integer.MAX_VALUE) depth++;
+        return (float) value;
+    }
+
+    @Override
+    public void reset(long now, float lux) {
+        value = lux;
+        lastTime = now;
+        depth = 1;
+    }
+
+    @Override public void clear() { depth = 0; }
+    @Override public int depth() { return depth; }
+
+    @Override
+    public void configure(ConfigSnapshot config) {
+        tauMs = Math.max(1, config.windowMs / 2.0);
+    }
+}
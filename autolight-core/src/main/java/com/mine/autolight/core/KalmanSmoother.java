@@ -0,0 +1,67 @@
+package com.mine.autolight.core;
+
+/**
+ * One-dimensional Kalman filter on log(1 + lux): the level is a random walk and each
+ * reading a noisy measurement of it. Working in log space makes sensor noise roughly
+ * proportional, as it is on real ambient light sensors. Process noise grows with the
+ * time between samples and is scaled so that at the normal sensor rate the settled
+ * gain matches an exponential average over half the smoothing window.
+ * Constant memory and work per event whatever the window length.
+ */
+final class KalmanSmoother implements LuxStage {
+
+    // Measurement noise: about 5% per reading
+    private static final double R = 0.05 * 0.05;
+    // Sample interval the process noise is calibrated at (the governor's normal rate)
+    private static final double REFERENCE_DT_MS = 200;
+
+    private double q;
+    private double x = 0;
+    private double p = R;
+    private long lastTime = 0;
+    private int depth = 0;
+
+    KalmanSmoother(ConfigSnapshot config) {
+        configure(config);
+    }
+
+    @Override
+    public float filter(float lux, long now) {
+        double z = Math.log1p(Math.max(lux, 0f));
+        if (depth == 0) {
+            start(now, z);
+            return lux;
+        }
+        long dt = Math.max(0, now - lastTime);
+        p += q * dt;
+        double k = p / (p + R);
+        x += k * (z - x);
+        p *= 1 - k;
+        lastTime = now;
+        if (depth < Integer.MAX_VALUE) depth++;
+        return (float) Math.expm1(x);
+    }
+
+    @Override
+    public void reset(long now, float lux) {
+        start(now, Math.log1p(Math.max(lux, 0f)));
+    }
+
+    private void start(long now, double z) {
+        x = z;
+        p = R;
+        lastTime = now;
+        depth = 1;
+    }
+
+    @Override public void clear() { depth = 0; }
+    @Override public int depth() { return depth; }
+
+    @Override
+    public void configure(ConfigSnapshot config) {
+        // Settled gain ~ sqrt(Q / R); match dt / tau with tau = window / 2 at the reference rate
+        double tauMs = Math.max(1, config.windowMs / 2.0);
+        double gain = Math.min(1.0, REFERENCE_DT_MS / tauMs);
+        q = R * gain * gain / REFERENCE_DT_MS;
+    }
+}
@@ -0,0 +1,55 @@
+package com.mine.autolight.core;
+
+/**
+ * Fixed power-of-two buckets in microseconds: bucket 0 holds values under 1 us and
+ * bucket i values in [2^(i-1), 2^i) us, the last one everything longer. Recording is
+ * a few arithmetic operations and never allocates. Single writer; read it on the
+ * writer's thread for a consistent view.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 24;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sumNanos = 0;
+    private long maxNanos = 0;
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+        counts[Math.min(bucket, BUCKETS - 1)]++;
+        count++;
+        sumNanos += nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    public long count() { return count; }
+    public long maxMicros() { return maxNanos / 1000; }
+    public long meanMicros() { return count == 0 ? 0 : sumNanos / count / 1000; }
+
+    /** Upper bound in us of the bucket holding the given quantile (0..1). */
+    public long percentileMicros(double q) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) return i == BUCKETS - 1 ? maxMicros() : 1L << i;
+        }
+        return maxMicros();
+    }
+
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = 0;
+        count = 0;
+        sumNanos = 0;
+        maxNanos = 0;
+    }
+
+    public String describe() {
+        if (count == 0) return "n/a";
+        return "p50 <" + percentileMicros(0.5) + " us, p99 <" + percentileMicros(0.99)
+                + " us, max " + maxMicros() + " us (n=" + count + ")";
+    }
+}
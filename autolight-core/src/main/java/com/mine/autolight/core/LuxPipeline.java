@@ -0,0 +1,458 @@
+package com.mine.autolight.core;
+
+/**
+ * Lux to brightness pipeline: median pre-filter, quick-react snapping, window smoothing
+ * with hysteresis, the brightness curve, warm start, the unlock burst and the sampling
+ * governor. It has no Android dependencies; the host supplies time, delayed tasks, the
+ * sensor and the brightness output, and calls everything from the scheduler's thread.
+ */
+public final class LuxPipeline {
+
+    /** How long an unlock burst may sample at the fastest rate. */
+    public static final long BURST_MS = 600;
+
+    /** Outside "always" mode, listening stops this long after each start. */
+    public static final long SUSPEND_MS = 2500;
+
+    private final Clock clock;
+    private final Scheduler scheduler;
+    private final SensorSource sensor;
+    private final BrightnessSink sink;
+
+    // Settings in use, and the latest ones handed over by publish(); swapped on the pipeline's thread
+    private ConfigSnapshot config;
+    private volatile ConfigSnapshot published;
+    private int displayMaximum;
+
+    private boolean onListen = false;
+    private boolean batched = false;
+    private boolean landscape = false;
+    private boolean needsImmediateUpdate = false;
+
+    // Unlock burst: sample at the fastest rate until two readings agree or the window ends
+    private boolean burst = false;
+    private float burstPrev = -1f;
+
+    private final Runnable suspendTask = this::onSuspendTimeout;
+    private final Runnable burstTimeout = this::onBurstTimeout;
+
+    // Where the previous wake ended; a provisional brightness is applied from it on the next one
+    private final WarmStartSeed seed = new WarmStartSeed();
+    private boolean provisional = false;
+    private long seededAt;
+    // Last lux a real sample put on screen, by either path; the next seed is taken from it
+    private float settledLux = -1f;
+
+    private volatile float lux = 0;
+    private volatile int tempBrightness = 0;
+
+    // Filter stages, assembled from the settings by LuxStages
+    private LuxStage smoother;
+    private float lastAppliedLux = -1f;
+    private float lastFilteredLux = 0f;
+
+    private LuxStage preFilter;
+    private BrightnessCurve curve;
+    private final SamplingGovernor governor;
+    private QuickReact quickReact;
+    private long quickReactSnaps = 0;
+
+    // Optional trace of every event: raw, filtered and the value written for it (-1 if none),
+    // plus a marker for every lifecycle call from the host; the pipeline's own stops are not marked
+    private LuxTraceRecorder recorder;
+    private int eventWrite = -1;
+
+    // Open hardware batch: the samples of one FIFO flush all describe the past, so only
+    // the brightness decided last among them reaches the sink, from endBatch()
+    private boolean batchOpen = false;
+    private int batchValue = -1;
+    // A registration change asked for inside a batch; done at its end so the rest of the flush still arrives
+    private boolean reregisterPending = false;
+
+    // System trace sections and counters; every call site checks the flag first
+    private Tracer tracer = Tracer.NONE;
+    private boolean tracing = false;
+
+    public LuxPipeline(Clock clock, Scheduler scheduler, SensorSource sensor, BrightnessSink sink,
+                       ConfigSnapshot config, int displayMaximum) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.sensor = sensor;
+        this.sink = sink;
+        this.config = config;
+        this.published = config;
+        this.displayMaximum = displayMaximum;
+        preFilter = LuxStages.preFilter(config);
+        smoother = LuxStages.smoother(config);
+        curve = config.compileCurve(displayMaximum);
+        governor = new SamplingGovernor(config.adaptiveSampling);
+        quickReact = createQuickReact(config.quickReactEngine);
+    }
+
+    private static QuickReact createQuickReact(int engine) {
+        return (engine == PipelineConfig.QUICK_REACT_CHANGE_POINT) ? new ChangePointDetector() : new QuickReactDetector();
+    }
+
+    /**
+     * Hands over new settings; safe from any thread. They take effect on the next event or
+     * {@link #start}, keeping window contents, filter state and the sensor registration
+     * unless a changed setting needs otherwise.
+     */
+    public void publish(ConfigSnapshot snapshot) {
+        published = snapshot;
+    }
+
+    /** Switches to the latest published settings; returns true if the work mode changed. */
+    private boolean adoptPublished() {
+        ConfigSnapshot next = published;
+        if (next == config) return false;
+        ConfigSnapshot previous = config;
+        config = next;
+        writeHeader();
+
+        // Stages of the same kind keep their samples; a different kind starts empty
+        if (LuxStages.samePreFilter(next, previous)) preFilter.configure(next);
+        else preFilter = LuxStages.preFilter(next);
+        if (LuxStages.sameSmoother(next, previous)) smoother.configure(next);
+        else smoother = LuxStages.smoother(next);
+        governor.setEnabled(next.adaptiveSampling);
+        if (next.quickReactEngine != previous.quickReactEngine) quickReact = createQuickReact(next.quickReactEngine);
+
+        if (!next.sameCurve(previous)) {
+            curve = next.compileCurve(displayMaximum);
+            // Show the new curve right away for the light we already settled on
+            if (lastAppliedLux != -1f) setBrightness((int) lastAppliedLux);
+        }
+
+        if (onListen && (next.batchLatencyMs != previous.batchLatencyMs || next.adaptiveSampling != previous.adaptiveSampling)) {
+            long now = clock.now();
+            governor.end(now);
+            batched = next.batchLatencyMs > 0 && sensor.hasFifo();
+            governor.begin(now);
+            reregister();
+        }
+        return next.mode != previous.mode;
+    }
+
+    public void setDisplayMaximum(int displayMaximum) {
+        if (displayMaximum == this.displayMaximum) return;
+        this.displayMaximum = displayMaximum;
+        curve = config.compileCurve(displayMaximum);
+        writeHeader();
+    }
+
+    public void setLandscape(boolean landscape) {
+        if (landscape == this.landscape) return;
+        this.landscape = landscape;
+        mark(landscape ? LuxTrace.MARK_LANDSCAPE : LuxTrace.MARK_PORTRAIT);
+    }
+
+    /** True while samples are delivered in hardware batches and must carry their own timestamps. */
+    public boolean isBatched() { return batched; }
+
+    /** Starts or stops (null) recording every event; flushed on {@link #stop}, the caller closes it. */
+    public void setRecorder(LuxTraceRecorder recorder) {
+        this.recorder = recorder;
+        writeHeader();
+    }
+
+    // A trace file starts with the settings and display maximum, then the orientation:
+    // the one piece of state a replay cannot work out from the markers that follow
+    private void writeHeader() {
+        if (recorder != null && recorder.setHeader(config, displayMaximum)) {
+            mark(landscape ? LuxTrace.MARK_LANDSCAPE : LuxTrace.MARK_PORTRAIT);
+        }
+    }
+
+    private void mark(int marker) {
+        if (recorder != null) recorder.mark(clock.now(), marker);
+    }
+
+    /** Emits trace sections and counters through {@code tracer}, or nothing when it is null. */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer != null ? tracer : Tracer.NONE;
+        this.tracing = tracer != null;
+    }
+
+    public void onSample(float rawLux, long now) {
+        eventWrite = -1;
+        // A new work mode may mean this wake should not be listening at all
+        if (adoptPublished() && onListen) activate();
+        if (tracing) tracer.counter("AutoLight raw lux", (long) rawLux);
+        process(rawLux, now);
+        if (tracing) {
+            tracer.counter("AutoLight filtered lux", (long) lastFilteredLux);
+            tracer.counter("AutoLight window", smoother.depth());
+        }
+        if (recorder != null) recorder.record(now, rawLux, lastFilteredLux, eventWrite);
+
+        // Under a report latency a faster rate would only fill the FIFO quicker, so batched
+        // listening stays at the normal rate
+        if (onListen && !burst && !batched && governor.update(lastFilteredLux, quickReact.isPending(), now)) {
+            reregister();
+        }
+    }
+
+    private void process(float rawLux, long now) {
+        // If light goes dark (raw lux < 2.0), reset filters to allow instant dimming.
+        float filteredLux;
+        if (rawLux < 2.0f) {
+            preFilter.clear();
+            smoother.clear();
+            filteredLux = rawLux;
+        } else {
+            if (tracing) tracer.beginSection("AutoLight:filter");
+            filteredLux = preFilter.filter(rawLux, now);
+            if (tracing) tracer.endSection();
+        }
+        lastFilteredLux = filteredLux;
+
+        if (provisional) {
+            // First real sample after a warm start: keep refining from the seed unless it was clearly wrong
+            provisional = false;
+            // A batch can carry samples taken before the seed was placed; move the seed back to
+            // the first of them so the time-weighted window never sees a negative hold time
+            if (now < seededAt) smoother.reset(now, lastAppliedLux);
+            float gap = Math.abs(filteredLux - lastAppliedLux);
+            if (gap > lastAppliedLux * config.hysteresisThreshold && gap > config.absoluteThreshold) {
+                smoother.clear();
+                needsImmediateUpdate = true;
+            }
+        }
+
+        if (lastAppliedLux != -1f && !needsImmediateUpdate) {
+            // Debounced Quick React processing
+            if (quickReact.update(filteredLux, lastAppliedLux, now, config)) {
+                // If the massive change has sustained, clear smoothing buffer and snap immediately.
+                smoother.reset(now, filteredLux);
+                applyAndRecord(filteredLux);
+                quickReactSnaps++;
+                return;
+            }
+        } else {
+            quickReact.reset();
+        }
+
+        // Standard smoothing of the filtered lux
+        float smoothedLux = smoother.filter(filteredLux, now);
+
+        if (needsImmediateUpdate || config.mode == PipelineConfig.MODE_UNLOCK) {
+            if (burst && !burstSettled(filteredLux)) return;
+            applyImmediate(filteredLux);
+            return;
+        }
+
+        processSmoothedLux(smoothedLux);
+    }
+
+    private void applyImmediate(float filteredLux) {
+        lux = filteredLux;
+        settledLux = filteredLux;
+        setBrightness((int) lux);
+        needsImmediateUpdate = false;
+        if (config.mode == PipelineConfig.MODE_UNLOCK) deactivate();
+        if (burst) endBurst();
+    }
+
+    private void processSmoothedLux(float averageLux) {
+        float diff = Math.abs(averageLux - lastAppliedLux);
+
+        if (lastAppliedLux == -1f || diff > (lastAppliedLux * config.hysteresisThreshold) || diff > config.absoluteThreshold) {
+            lux = averageLux;
+            applyAndRecord(lux);
+        }
+    }
+
+    private void applyAndRecord(float luxVal) {
+        setBrightness((int) luxVal);
+        lastAppliedLux = luxVal;
+        settledLux = luxVal;
+    }
+
+    private void setBrightness(int luxValue) {
+        if (tracing) tracer.beginSection("AutoLight:curve");
+        int step = curve.step(luxValue);
+        if (tracing) tracer.endSection();
+        tempBrightness = curve.percentOf(step);
+        eventWrite = curve.valueOf(step);
+        if (batchOpen) batchValue = eventWrite;
+        else sink.write(eventWrite);
+    }
+
+    /**
+     * Starts a hardware batch: until {@link #endBatch}, decisions are held back and only
+     * the last one is written. The host calls it before the first sample of a FIFO flush.
+     */
+    public void beginBatch() {
+        batchOpen = true;
+    }
+
+    /** Ends the batch opened by {@link #beginBatch}, writing its last decision if there was one. */
+    public void endBatch() {
+        batchOpen = false;
+        if (reregisterPending) {
+            reregisterPending = false;
+            if (onListen) {
+                sensor.unregister();
+                register();
+            }
+        }
+        int value = batchValue;
+        batchValue = -1;
+        if (value != -1) sink.write(value);
+    }
+
+    public boolean isBatchOpen() { return batchOpen; }
+
+    private boolean burstSettled(float filteredLux) {
+        boolean settled = burstPrev >= 0f && Math.abs(filteredLux - burstPrev) <= Math.max(2f, burstPrev * 0.1f);
+        burstPrev = filteredLux;
+        return settled;
+    }
+
+    /** Starts an unlock burst that ends by itself {@link #BURST_MS} later at the latest. */
+    public void beginBurst() {
+        mark(LuxTrace.MARK_UNLOCK);
+        needsImmediateUpdate = true;
+        burst = true;
+        burstPrev = -1f;
+        scheduler.cancel(burstTimeout);
+        scheduler.postDelayed(burstTimeout, BURST_MS);
+        if (onListen) reregister();
+    }
+
+    private void endBurst() {
+        burst = false;
+        if (onListen) reregister();
+    }
+
+    private void onBurstTimeout() {
+        if (!burst) return;
+        // No agreement within the window: go with the latest reading if there is one
+        if (needsImmediateUpdate && burstPrev >= 0f) applyImmediate(burstPrev);
+        else endBurst();
+    }
+
+    /** Called at screen off: remembers a warm-start seed and resets filters for the next wake. */
+    public void resetForScreenOn() {
+        mark(LuxTrace.MARK_SCREEN_OFF);
+        if (settledLux != -1f) {
+            // A pending quick-react means the light was still changing
+            float confidence = quickReact.isPending() ? 0f : (smoother.depth() >= 3 ? 1f : 0.5f);
+            seed.capture(settledLux, clock.now(), confidence);
+            settledLux = -1f;
+        }
+        provisional = false;
+        needsImmediateUpdate = true;
+        lastAppliedLux = -1f;
+        smoother.clear();
+        preFilter.clear();
+        quickReact.reset();
+        burst = false;
+        scheduler.cancel(burstTimeout);
+    }
+
+    /**
+     * Starts listening if the work mode and orientation call for it, stops otherwise.
+     * Outside "always" mode listening is suspended again {@link #SUSPEND_MS} later.
+     */
+    public void start() {
+        adoptPublished();
+        mark(LuxTrace.MARK_START);
+        activate();
+    }
+
+    private void activate() {
+        scheduler.cancel(suspendTask);
+        boolean shouldActivate = (config.mode == PipelineConfig.MODE_ALWAYS || config.mode == PipelineConfig.MODE_UNLOCK || (config.mode == PipelineConfig.MODE_LANDSCAPE && landscape) || (config.mode == PipelineConfig.MODE_PORTRAIT && !landscape) || needsImmediateUpdate);
+
+        if (!shouldActivate) {
+            deactivate();
+            return;
+        }
+        if (needsImmediateUpdate) warmStart();
+        if (!onListen && sensor.isAvailable()) {
+            batched = config.batchLatencyMs > 0 && sensor.hasFifo();
+            governor.begin(clock.now());
+            register();
+            onListen = true;
+        }
+        if (config.mode != PipelineConfig.MODE_ALWAYS) scheduler.postDelayed(suspendTask, SUSPEND_MS);
+    }
+
+    private void warmStart() {
+        long now = clock.now();
+        float seedLux = seed.take(now, config.warmStartMs);
+        if (seedLux < 0f) return;
+        smoother.reset(now, seedLux);
+        seededAt = now;
+        lux = seedLux;
+        // Provisional: filtering refines from it, but only a real sample makes it the next seed
+        setBrightness((int) seedLux);
+        lastAppliedLux = seedLux;
+        provisional = true;
+        if (config.mode != PipelineConfig.MODE_UNLOCK) needsImmediateUpdate = false;
+    }
+
+    public void stop() {
+        mark(LuxTrace.MARK_STOP);
+        deactivate();
+    }
+
+    private void onSuspendTimeout() {
+        // Settings published since the last event may not want this stop, e.g. a switch to "always"
+        if (adoptPublished()) activate();
+        else deactivate();
+    }
+
+    private void deactivate() {
+        if (onListen) {
+            sensor.unregister();
+            governor.end(clock.now());
+            onListen = false;
+        }
+        if (recorder != null) recorder.flush();
+    }
+
+    /** Stops listening and drops pending timers. */
+    public void shutdown() {
+        scheduler.cancel(suspendTask);
+        scheduler.cancel(burstTimeout);
+        burst = false;
+        stop();
+    }
+
+    public boolean isListening() { return onListen; }
+
+    /** Re-registers at the current rate, or at the end of the open batch if there is one. */
+    private void reregister() {
+        if (batchOpen) {
+            reregisterPending = true;
+            return;
+        }
+        sensor.unregister();
+        register();
+    }
+
+    private void register() {
+        if (burst) {
+            sensor.register(SensorSource.PERIOD_FASTEST, 0);
+        } else if (batched) {
+            sensor.register(governor.periodUs(), config.batchLatencyUs);
+        } else {
+            sensor.register(governor.periodUs(), 0);
+        }
+    }
+
+    public int getLastSensorValue() { return (int) lux; }
+    /** Value decided by the latest event, -1 if none; in a batch it is written at {@link #endBatch}. */
+    public int getEventWrite() { return eventWrite; }
+    /** How many times quick-react has snapped past the smoothing window. */
+    public long getQuickReactSnaps() { return quickReactSnaps; }
+    /** Median-filtered lux of the latest event; call on the pipeline's thread. */
+    public float getFilteredLux() { return lastFilteredLux; }
+    public int getSetBrightness() { return tempBrightness; }
+
+    /** Sampling governor state; call on the pipeline's thread. */
+    public String describeSampling() { return governor.describe(clock.now()); }
+}
@@ -0,0 +1,24 @@
+package com.mine.autolight.core;
+
+/**
+ * One allocation-free step of lux filtering. The pipeline runs a pre-filter stage on
+ * raw samples and a smoothing stage on its output; both are assembled from the
+ * settings by {@link LuxStages}.
+ */
+interface LuxStage {
+
+    /** Feeds one sample and returns the stage's current output. */
+    float filter(float lux, long now);
+
+    /** Restarts from a single known level, e.g. after a quick-react snap or a warm start. */
+    void reset(long now, float lux);
+
+    /** Forgets everything. */
+    void clear();
+
+    /** Number of samples behind the current output. */
+    int depth();
+
+    /** Takes changed window lengths or gains without dropping state. */
+    void configure(ConfigSnapshot config);
+}
@@ -0,0 +1,34 @@
+package com.mine.autolight.core;
+
+/** Builds the pipeline's filter stages from the settings. */
+final class LuxStages {
+
+    private LuxStages() {}
+
+    static LuxStage preFilter(ConfigSnapshot config) {
+        if (config.preFilter == PipelineConfig.PREFILTER_NONE) return new PassThroughStage();
+        return new SlidingMedian(config.medianWindowMs);
+    }
+
+    static LuxStage smoother(ConfigSnapshot config) {
+        switch (config.smoothingMode) {
+            case PipelineConfig.SMOOTHING_EXPONENTIAL: return new ExponentialSmoother(config);
+            case PipelineConfig.SMOOTHING_KALMAN: return new KalmanSmoother(config);
+            default: return new WindowSmoother(config);
+        }
+    }
+
+    /** True when switching between the two settings needs a new stage rather than {@link LuxStage#configure}. */
+    static boolean samePreFilter(ConfigSnapshot a, ConfigSnapshot b) {
+        return a.preFilter == b.preFilter;
+    }
+
+    static boolean sameSmoother(ConfigSnapshot a, ConfigSnapshot b) {
+        return kind(a.smoothingMode) == kind(b.smoothingMode);
+    }
+
+    // Both window modes share one stage; it reads the mode on every event
+    private static int kind(int smoothingMode) {
+        return (smoothingMode == PipelineConfig.SMOOTHING_TIME) ? PipelineConfig.SMOOTHING_COUNT : smoothingMode;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mine.autolight.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Binary lux trace layout shared by {@link LuxTraceRecorder} and {@link LuxTraceReader}.
+ * Little-endian; a header describing the pipeline followed by fixed-width records:
+ * <pre>
+ *   header: int magic "ALTR", short version, short record size, int header size,
+ *           int display maximum, the settings (see {@link #putConfig})
+ *   record: long timeMs, float rawLux, float filteredLux, int brightness (-1 = nothing written)
+ * </pre>
+ * A record whose brightness is below -1 is a lifecycle marker instead of a sensor event:
+ * one of the MARK_ codes, at the time the host made that call into the pipeline.
+ * Version 1 traces have an 8-byte header with neither settings nor markers.
+ */
+final class LuxTrace {
+
+    static final int MAGIC = 0x52544C41; // "ALTR" read little-endian
+    static final short VERSION = 2;
+    static final int RECORD_BYTES = 20;
+    static final int V1_HEADER_BYTES = 8;
+    static final int CONFIG_BYTES = 332;
+    static final int HEADER_BYTES = 16 + CONFIG_BYTES;
+
+    static final int MARK_START = -2;
+    static final int MARK_STOP = -3;
+    /** Screen off: filters reset and the warm-start seed taken for the next wake. */
+    static final int MARK_SCREEN_OFF = -4;
+    /** Screen unlocked: the unlock burst begins. */
+    static final int MARK_UNLOCK = -5;
+    static final int MARK_LANDSCAPE = -6;
+    static final int MARK_PORTRAIT = -7;
+
+    private LuxTrace() {}
+
+    static ByteBuffer header(ConfigSnapshot config, int displayMaximum) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_BYTES).putInt(HEADER_BYTES).putInt(displayMaximum);
+        putConfig(header, config.toConfig());
+        header.flip();
+        return header;
+    }
+
+    /** Writes {@code c} in {@link #CONFIG_BYTES}; booleans as int 0/1, the curve padded to MAX_CURVE_POINTS. */
+    static void putConfig(ByteBuffer out, PipelineConfig c) {
+        int n = c.curveLux.length;
+        out.putInt(c.mode).putInt(c.curveInterpolation).putInt(n);
+        for (int i = 0; i < PipelineConfig.MAX_CURVE_POINTS; i++) out.putInt(i < n ? c.curveLux[i] : 0);
+        for (int i = 0; i < PipelineConfig.MAX_CURVE_POINTS; i++) out.putInt(i < n ? c.curvePercent[i] : 0);
+        out.putFloat(c.hysteresisThreshold).putInt(c.absoluteThreshold).putInt(c.windowMs).putInt(c.smoothingMode);
+        out.putInt(c.quickReactLux).putInt(c.quickReactPercent).putInt(c.preFilter);
+        out.putLong(c.medianWindowMs).putLong(c.debounceMs);
+        out.putInt(c.quickReactEngine).putFloat(c.changePointThreshold);
+        out.putInt(c.batchLatencyMs).putInt(c.adaptiveSampling ? 1 : 0).putInt(c.warmStartMs);
+    }
+
+    static PipelineConfig getConfig(ByteBuffer in) {
+        PipelineConfig c = new PipelineConfig();
+        c.mode = in.getInt();
+        c.curveInterpolation = in.getInt();
+        int n = Math.max(1, Math.min(PipelineConfig.MAX_CURVE_POINTS, in.getInt()));
+        int[] lux = new int[PipelineConfig.MAX_CURVE_POINTS];
+        int[] percent = new int[PipelineConfig.MAX_CURVE_POINTS];
+        for (int i = 0; i < lux.length; i++) lux[i] = in.getInt();
+        for (int i = 0; i < percent.length; i++) percent[i] = in.getInt();
+        c.curveLux = Arrays.copyOf(lux, n);
+        c.curvePercent = Arrays.copyOf(percent, n);
+        c.hysteresisThreshold = in.getFloat();
+        c.absoluteThreshold = in.getInt();
+        c.windowMs = in.getInt();
+        c.smoothingMode = in.getInt();
+        c.quickReactLux = in.getInt();
+        c.quickReactPercent = in.getInt();
+        c.preFilter = in.getInt();
+        c.medianWindowMs = in.getLong();
+        c.debounceMs = in.getLong();
+        c.quickReactEngine = in.getInt();
+        c.changePointThreshold = in.getFloat();
+        c.batchLatencyMs = in.getInt();
+        c.adaptiveSampling = in.getInt() != 0;
+        c.warmStartMs = in.getInt();
+        return c;
+    }
+}
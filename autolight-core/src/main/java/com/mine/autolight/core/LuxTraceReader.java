@@ -0,0 +1,93 @@
+package com.mine.autolight.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped sequential reader for a trace written by {@link LuxTraceRecorder}.
+ * {@link #next} steps over sensor events and lifecycle markers alike; check
+ * {@link #isMarker} before reading a record as an event.
+ */
+public final class LuxTraceReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer map;
+
+    private final int version;
+    private final int displayMaximum;
+    private final PipelineConfig config;
+
+    private long timeMs;
+    private float rawLux;
+    private float filteredLux;
+    private int brightness;
+
+    public LuxTraceReader(File trace) throws IOException {
+        file = new RandomAccessFile(trace, "r");
+        map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.remaining() < LuxTrace.V1_HEADER_BYTES || map.getInt() != LuxTrace.MAGIC) {
+            file.close();
+            throw new IOException("not a lux trace: " + trace);
+        }
+        version = map.getShort();
+        short recordBytes = map.getShort();
+        if (version < 1 || version > LuxTrace.VERSION || recordBytes != LuxTrace.RECORD_BYTES) {
+            file.close();
+            throw new IOException("unsupported trace version " + version + " in " + trace);
+        }
+        if (version == 1) {
+            displayMaximum = 0;
+            config = null;
+            return;
+        }
+        int headerBytes = map.getInt();
+        if (headerBytes < LuxTrace.HEADER_BYTES || map.capacity() < headerBytes) {
+            file.close();
+            throw new IOException("truncated trace header in " + trace);
+        }
+        displayMaximum = map.getInt();
+        config = LuxTrace.getConfig(map);
+        map.position(headerBytes);
+    }
+
+    /** True if the trace carries its settings and lifecycle markers (version 2 and later). */
+    public boolean hasLifecycle() { return version >= 2; }
+
+    /** Settings the trace was recorded with, or null for a version 1 trace. */
+    public PipelineConfig config() { return config; }
+
+    /** Display maximum the trace was recorded with, or 0 if unknown. */
+    public int displayMaximum() { return displayMaximum; }
+
+    /** Advances to the next record; false at the end (a truncated last record is ignored). */
+    public boolean next() {
+        if (map.remaining() < LuxTrace.RECORD_BYTES) return false;
+        timeMs = map.getLong();
+        rawLux = map.getFloat();
+        filteredLux = map.getFloat();
+        brightness = map.getInt();
+        return true;
+    }
+
+    public long timeMs() { return timeMs; }
+    public float rawLux() { return rawLux; }
+    public float filteredLux() { return filteredLux; }
+    public int brightness() { return brightness; }
+
+    /** True if the current record is a lifecycle marker rather than a sensor event. */
+    public boolean isMarker() { return brightness < -1; }
+
+    /** The current record's marker code, one of the {@code LuxTrace.MARK_} values. */
+    int marker() { return brightness; }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,131 @@
+package com.mine.autolight.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records what the pipeline saw and did, one fixed-width record per sensor event plus
+ * a marker record for each lifecycle call. Records go into a preallocated buffer that
+ * is written out when full or on {@link #flush}; files are capped at {@code maxFileBytes}
+ * and rotated as {@code name.bin}, {@code name.1.bin}, ... keeping at most {@code maxFiles}.
+ * Every file starts with the settings and display maximum in effect, so a change of
+ * either starts a new file. I/O errors switch the recorder off rather than disturb the pipeline.
+ */
+public final class LuxTraceRecorder {
+
+    private static final int BUFFERED_RECORDS = 512;
+
+    private final File dir;
+    private final String name;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(LuxTrace.RECORD_BYTES * BUFFERED_RECORDS)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    private FileChannel channel;
+    private long fileBytes;
+    private boolean failed = false;
+    // Header of the current and following files; set by the pipeline before the first record
+    private ByteBuffer header;
+
+    public LuxTraceRecorder(File dir, String name, long maxFileBytes, int maxFiles) {
+        this.dir = dir;
+        this.name = name;
+        this.maxFileBytes = Math.max(maxFileBytes, LuxTrace.HEADER_BYTES + LuxTrace.RECORD_BYTES);
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    public void record(long timeMs, float rawLux, float filteredLux, int brightness) {
+        if (failed) return;
+        buf.putLong(timeMs).putFloat(rawLux).putFloat(filteredLux).putInt(brightness);
+        if (!buf.hasRemaining()) flush();
+    }
+
+    /** Records a lifecycle call, one of the {@code LuxTrace.MARK_} codes. */
+    void mark(long timeMs, int marker) {
+        record(timeMs, 0f, 0f, marker);
+    }
+
+    /**
+     * Settings and display maximum for what follows; a change ends the current file.
+     * Returns true if the next record starts a new header.
+     */
+    boolean setHeader(ConfigSnapshot config, int displayMaximum) {
+        ByteBuffer next = LuxTrace.header(config, displayMaximum);
+        if (next.equals(header)) return false;
+        if (header != null && !failed) {
+            flush();
+            closeQuietly();
+        }
+        header = next;
+        return true;
+    }
+
+    /** Writes buffered records out to the current file. */
+    public void flush() {
+        if (failed || buf.position() == 0) return;
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) {
+                if (channel == null || fileBytes + LuxTrace.RECORD_BYTES > maxFileBytes) openNext();
+                // Never split a record across files
+                int records = (int) Math.min(buf.remaining() / LuxTrace.RECORD_BYTES,
+                        (maxFileBytes - fileBytes) / LuxTrace.RECORD_BYTES);
+                int limit = buf.limit();
+                buf.limit(buf.position() + records * LuxTrace.RECORD_BYTES);
+                while (buf.hasRemaining()) fileBytes += channel.write(buf);
+                buf.limit(limit);
+            }
+        } catch (IOException e) {
+            failed = true;
+            closeQuietly();
+        }
+        buf.clear();
+    }
+
+    public void close() {
+        flush();
+        closeQuietly();
+    }
+
+    public static File currentFile(File dir, String name) {
+        return new File(dir, name + ".bin");
+    }
+
+    private void openNext() throws IOException {
+        closeQuietly();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+        rotate();
+        channel = new RandomAccessFile(currentFile(dir, name), "rw").getChannel();
+        channel.truncate(0);
+        if (header == null) header = LuxTrace.header(ConfigSnapshot.of(new PipelineConfig()), 255);
+        ByteBuffer out = header.duplicate();
+        while (out.hasRemaining()) channel.write(out);
+        fileBytes = LuxTrace.HEADER_BYTES;
+    }
+
+    private void rotate() {
+        File current = currentFile(dir, name);
+        if (!current.exists()) return;
+        if (maxFiles == 1) {
+            current.delete();
+            return;
+        }
+        new File(dir, name + "." + (maxFiles - 1) + ".bin").delete();
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            File f = new File(dir, name + "." + i + ".bin");
+            if (f.exists()) f.renameTo(new File(dir, name + "." + (i + 1) + ".bin"));
+        }
+        current.renameTo(new File(dir, name + ".1.bin"));
+    }
+
+    private void closeQuietly() {
+        if (channel == null) return;
+        try { channel.close(); } catch (IOException ignored) { }
+        channel = null;
+    }
+}
@@ -0,0 +1,115 @@
+package com.mine.autolight.core;
+
+/**
+ * Time-bounded window of lux samples kept in parallel primitive arrays.
+ * Appends and expiry are O(1); storage only grows when the window outgrows it,
+ * so steady-state ingestion does not allocate.
+ * Besides the plain sum it keeps the time integral of the samples, each held until the
+ * next one, so a time-weighted mean is also O(1) regardless of how unevenly they arrive.
+ */
+final class LuxWindow {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] times = new long[INITIAL_CAPACITY];
+    private float[] values = new float[INITIAL_CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    private float sum = 0f;
+
+    // Integral of value * hold time between consecutive samples in the window, with
+    // Neumaier compensation; exactly zero again whenever at most one sample is left
+    private double area = 0d;
+    private double areaComp = 0d;
+    // Last sample dropped by expire(); it still covers the start of the window
+    private boolean hasExpired = false;
+    private float expiredValue = 0f;
+
+    void add(long time, float value) {
+        if (size == times.length) grow();
+        if (size > 0) {
+            int last = (head + size - 1) & (times.length - 1);
+            accumulate((double) values[last] * (time - times[last]));
+        }
+        int tail = (head + size) & (times.length - 1);
+        times[tail] = time;
+        values[tail] = value;
+        size++;
+        sum += value;
+    }
+
+    /** Drops samples older than {@code windowMs} relative to {@code now}. */
+    void expire(long now, long windowMs) {
+        while (size > 0 && (now - times[head]) > windowMs) {
+            sum -= values[head];
+            int next = (head + 1) & (times.length - 1);
+            if (size > 1) accumulate(-(double) values[head] * (times[next] - times[head]));
+            hasExpired = true;
+            expiredValue = values[head];
+            head = next;
+            size--;
+        }
+        if (size <= 1) {
+            area = 0d;
+            areaComp = 0d;
+        }
+    }
+
+    /**
+     * Mean over the last {@code windowMs} with every sample weighted by how long it held,
+     * the newest one up to {@code now}. Before the window has filled, covers only the
+     * time since the first sample. Call after {@link #expire} with the same arguments.
+     */
+    float timeWeightedAverage(long now, long windowMs) {
+        int last = (head + size - 1) & (times.length - 1);
+        double total = area + areaComp + (double) values[last] * (now - times[last]);
+        long span = now - times[head];
+        if (hasExpired) {
+            total += (double) expiredValue * (times[head] - (now - windowMs));
+            span = windowMs;
+        }
+        if (span <= 0) return values[last];
+        return (float) (total / span);
+    }
+
+    private void accumulate(double x) {
+        double t = area + x;
+        if (Math.abs(area) >= Math.abs(x)) areaComp += (area - t) + x;
+        else areaComp += (x - t) + area;
+        area = t;
+    }
+
+    /** Replaces the whole window with a single sample. */
+    void reset(long time, float value) {
+        clear();
+        add(time, value);
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+        sum = 0f;
+        area = 0d;
+        areaComp = 0d;
+        hasExpired = false;
+    }
+
+    boolean isEmpty() { return size == 0; }
+    int size() { return size; }
+    float sum() { return sum; }
+
+    private void grow() {
+        // Capacity stays a power of two so indices wrap with a mask
+        int cap = times.length;
+        long[] t = new long[cap << 1];
+        float[] v = new float[cap << 1];
+        int firstPart = Math.min(size, cap - head);
+        System.arraycopy(times, head, t, 0, firstPart);
+        System.arraycopy(values, head, v, 0, firstPart);
+        System.arraycopy(times, 0, t, firstPart, size - firstPart);
+        System.arraycopy(values, 0, v, firstPart, size - firstPart);
+        times = t;
+        values = v;
+        head = 0;
+    }
+}
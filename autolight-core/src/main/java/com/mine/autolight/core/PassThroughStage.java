@@ -0,0 +1,18 @@
+package com.mine.autolight.core;
+
+/** Pre-filter that passes samples through untouched. */
+final class PassThroughStage implements LuxStage {
+
+    private int depth = 0;
+
+    @Override
+    public float filter(float lux, long now) {
+        depth = 1;
+        return lux;
+    }
+
+    @Override public void reset(long now, float lux) { depth = 1; }
+    @Override public void clear() { depth = 0; }
+    @Override public int depth() { return depth; }
+    @Override public void configure(ConfigSnapshot config) { }
+}
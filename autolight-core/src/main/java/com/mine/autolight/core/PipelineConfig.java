@@ -0,0 +1,64 @@
+package com.mine.autolight.core;
+
+/**
+ * Settings the lux pipeline runs with, copied out of the app's stored preferences.
+ * Mode values match the app's work modes. Editable; the pipeline itself only ever
+ * reads an immutable {@link ConfigSnapshot} taken from it.
+ */
+public final class PipelineConfig {
+
+    public static final int MODE_ALWAYS = 1;
+    public static final int MODE_PORTRAIT = 2;
+    public static final int MODE_UNLOCK = 3;
+    public static final int MODE_LANDSCAPE = 4;
+
+    /** Window mean over samples, each counted once. */
+    public static final int SMOOTHING_COUNT = 0;
+    /** Window mean over time, each sample weighted by how long it held. */
+    public static final int SMOOTHING_TIME = 1;
+    /** Exponential moving average; constant memory. */
+    public static final int SMOOTHING_EXPONENTIAL = 2;
+    /** Kalman filter on log-lux; constant memory. */
+    public static final int SMOOTHING_KALMAN = 3;
+
+    /** Sliding median over medianWindowMs before smoothing. */
+    public static final int PREFILTER_MEDIAN = 0;
+    /** No pre-filter; spikes go straight to the smoother. */
+    public static final int PREFILTER_NONE = 1;
+
+    /** Straight lines between curve points, in log-lux. */
+    public static final int CURVE_LINEAR = 0;
+    /** Monotone cubic spline through the curve points, in log-lux. */
+    public static final int CURVE_MONOTONE = 1;
+    public static final int MAX_CURVE_POINTS = 32;
+
+    /** Quick-react when the gap holds for the whole debounce time. */
+    public static final int QUICK_REACT_DEBOUNCE = 0;
+    /** Quick-react on a CUSUM change-point test over log-lux. */
+    public static final int QUICK_REACT_CHANGE_POINT = 1;
+
+    public int mode = MODE_UNLOCK;
+
+    // Curve points: lux and brightness percent, 1 to MAX_CURVE_POINTS of them
+    public int[] curveLux = { 1, 1000, 10000, 100000 };
+    public int[] curvePercent = { 1, 15, 30, 60 };
+    public int curveInterpolation = CURVE_LINEAR;
+
+    public float hysteresisThreshold = 0.15f;
+    public int absoluteThreshold = 5;
+    public int windowMs = 3000;
+    public int smoothingMode = SMOOTHING_COUNT;
+    public int quickReactLux = 50;
+    public int quickReactPercent = 50;
+    public int preFilter = PREFILTER_MEDIAN;
+    public long medianWindowMs = 2000;
+    public long debounceMs = 1200;
+    public int quickReactEngine = QUICK_REACT_DEBOUNCE;
+    // CUSUM decision threshold, in standard deviations of log-lux (change-point engine only);
+    // the app derives it from the filter level, like the debounce time
+    public float changePointThreshold = 5f;
+
+    public int batchLatencyMs = 0;
+    public boolean adaptiveSampling = true;
+    public int warmStartMs = 60000;
+}
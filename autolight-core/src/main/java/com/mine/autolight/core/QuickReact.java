@@ -0,0 +1,13 @@
+package com.mine.autolight.core;
+
+/** Decides when a large, real change in light should bypass window smoothing. */
+interface QuickReact {
+
+    /** Returns true when the pipeline should snap to {@code filteredLux}. */
+    boolean update(float filteredLux, float lastAppliedLux, long now, ConfigSnapshot config);
+
+    /** True while a change is being considered but has not been confirmed yet. */
+    boolean isPending();
+
+    void reset();
+}
@@ -0,0 +1,37 @@
+package com.mine.autolight.core;
+
+/**
+ * Debounced quick-react test: a filtered reading that differs from the applied one by more
+ * than both the lux and the percent threshold, continuously for the debounce time, asks the
+ * pipeline to drop its smoothing window and snap.
+ */
+final class QuickReactDetector implements QuickReact {
+
+    private long triggerTime = 0;
+    private boolean pending = false;
+
+    @Override
+    public boolean update(float filteredLux, float lastAppliedLux, long now, ConfigSnapshot config) {
+        float gap = Math.abs(filteredLux - lastAppliedLux);
+        float percentChange = (lastAppliedLux == 0f) ? 100f : (gap / lastAppliedLux) * 100f;
+
+        if (gap > config.quickReactLux && percentChange > config.quickReactPercent) {
+            if (!pending) {
+                triggerTime = now;
+                pending = true;
+            } else if (now - triggerTime >= config.debounceMs) {
+                pending = false;
+                return true;
+            }
+        } else {
+            pending = false;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isPending() { return pending; }
+
+    @Override
+    public void reset() { pending = false; }
+}
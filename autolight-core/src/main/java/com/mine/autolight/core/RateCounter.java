@@ -0,0 +1,65 @@
+package com.mine.autolight.core;
+
+import java.util.Locale;
+
+/**
+ * Events per fixed time bucket over a sliding ring of buckets, e.g. per second over the
+ * last minute. Marking touches one slot and never allocates. Single writer.
+ */
+public final class RateCounter {
+
+    private final long bucketMs;
+    private final int[] slots;
+    private long currentBucket = Long.MIN_VALUE;
+    private long firstBucket = 0;
+    private int peak = 0;
+
+    public RateCounter(long bucketMs, int buckets) {
+        this.bucketMs = bucketMs;
+        this.slots = new int[buckets];
+    }
+
+    public void mark(long now) {
+        roll(now);
+        int n = ++slots[(int) (currentBucket % slots.length)];
+        if (n > peak) peak = n;
+    }
+
+    /** Average per bucket over the completed buckets in the ring, or the current count before one completes. */
+    public float average(long now) {
+        if (currentBucket == Long.MIN_VALUE) return 0f;
+        roll(now);
+        int current = (int) (currentBucket % slots.length);
+        int completed = (int) Math.min(slots.length - 1, currentBucket - firstBucket);
+        if (completed == 0) return slots[current];
+        long total = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (i != current) total += slots[i];
+        }
+        return (float) total / completed;
+    }
+
+    /** Highest count seen in a single bucket since the last {@link #clear}. */
+    public int peak() { return peak; }
+
+    public void clear() {
+        for (int i = 0; i < slots.length; i++) slots[i] = 0;
+        currentBucket = Long.MIN_VALUE;
+        peak = 0;
+    }
+
+    private void roll(long now) {
+        long bucket = Math.max(0, now) / bucketMs;
+        if (currentBucket == Long.MIN_VALUE || bucket - currentBucket >= slots.length) {
+            for (int i = 0; i < slots.length; i++) slots[i] = 0;
+            if (currentBucket == Long.MIN_VALUE) firstBucket = bucket;
+        } else {
+            for (long b = currentBucket + 1; b <= bucket; b++) slots[(int) (b % slots.length)] = 0;
+        }
+        if (bucket > currentBucket) currentBucket = bucket;
+    }
+
+    public String describe(long now, String unit) {
+        return String.format(Locale.US, "%.1f%s (peak %d)", average(now), unit, peak);
+    }
+}
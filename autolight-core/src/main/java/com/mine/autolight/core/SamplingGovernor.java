@@ -0,0 +1,98 @@
+package com.mine.autolight.core;
+
+/**
+ * Chooses the light sensor sampling rate from recent filtered lux.
+ * A stable room drops to the slow rate, a pending quick-react raises it to the fast
+ * rate, anything else runs at the normal rate. Each rate must be held for a minimum
+ * dwell time before the next change so borderline input cannot make it flap.
+ */
+final class SamplingGovernor {
+
+    static final int RATE_SLOW = 0;
+    static final int RATE_NORMAL = 1;
+    static final int RATE_FAST = 2;
+
+    private static final int[] PERIOD_US = { 1000000, 200000, 20000 };
+    private static final String[] NAMES = { "slow", "normal", "fast" };
+
+    private static final long STABLE_MS = 10000;   // stable this long before going slow
+    private static final long MIN_DWELL_MS = 1500; // hysteresis between rate changes
+    private static final float STABLE_BAND = 0.10f;
+    private static final float STABLE_BAND_MIN_LUX = 5f;
+
+    private boolean enabled;
+
+    private int rate = RATE_NORMAL;
+    private long rateSince;
+    private float reference = -1f;
+    private long stableSince;
+
+    // Statistics; time only accrues while the sensor is registered
+    private final long[] timeInRate = new long[3];
+    private long transitions = 0;
+    private boolean active = false;
+    private long activeSince;
+
+    SamplingGovernor(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Called when the sensor gets registered; every listening session starts at the normal rate. */
+    void begin(long now) {
+        rate = RATE_NORMAL;
+        rateSince = now;
+        reference = -1f;
+        stableSince = now;
+        active = true;
+        activeSince = now;
+    }
+
+    void end(long now) {
+        if (!active) return;
+        timeInRate[rate] += now - activeSince;
+        active = false;
+    }
+
+    /** Feeds one filtered sample; returns true when the caller should re-register at {@link #periodUs()}. */
+    boolean update(float filteredLux, boolean quickReactPending, long now) {
+        if (!enabled) return false;
+
+        float band = Math.max(STABLE_BAND_MIN_LUX, reference * STABLE_BAND);
+        if (reference < 0f || Math.abs(filteredLux - reference) > band) {
+            reference = filteredLux;
+            stableSince = now;
+        }
+
+        int wanted;
+        if (quickReactPending) wanted = RATE_FAST;
+        else if (now - stableSince >= STABLE_MS) wanted = RATE_SLOW;
+        else wanted = RATE_NORMAL;
+
+        if (wanted == rate || now - rateSince < MIN_DWELL_MS) return false;
+
+        if (active) {
+            timeInRate[rate] += now - activeSince;
+            activeSince = now;
+        }
+        rate = wanted;
+        rateSince = now;
+        transitions++;
+        return true;
+    }
+
+    int periodUs() { return PERIOD_US[rate]; }
+
+    String describe(long now) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(NAMES[rate]).append(", ").append(transitions).append(" changes");
+        for (int i = RATE_FAST; i >= RATE_SLOW; i--) {
+            long ms = timeInRate[i] + ((active && i == rate) ? now - activeSince : 0);
+            sb.append("\n  ").append(NAMES[i]).append(": ").append(ms / 1000).append(" s");
+        }
+        return sb.toString();
+    }
+}
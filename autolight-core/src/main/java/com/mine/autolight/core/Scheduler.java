@@ -0,0 +1,10 @@
+package com.mine.autolight.core;
+
+/**
+ * Delayed tasks on the pipeline's thread (a Handler on a device). Posting the same
+ * task twice queues it twice; {@link #cancel} removes every pending instance.
+ */
+public interface Scheduler {
+    void postDelayed(Runnable task, long delayMs);
+    void cancel(Runnable task);
+}
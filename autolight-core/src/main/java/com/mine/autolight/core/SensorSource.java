@@ -0,0 +1,21 @@
+package com.mine.autolight.core;
+
+/**
+ * The ambient light sensor as seen by the pipeline.
+ * Samples come back through {@link LuxPipeline#onSample}.
+ */
+public interface SensorSource {
+
+    /** Requested period for the fastest rate the sensor supports. */
+    int PERIOD_FASTEST = 0;
+
+    boolean isAvailable();
+
+    /** True when the sensor has a hardware FIFO, so batched delivery is possible. */
+    boolean hasFifo();
+
+    /** Starts delivery at the given rate; a non-zero latency lets the sensor hub batch samples. */
+    void register(int samplingPeriodUs, int maxReportLatencyUs);
+
+    void unregister();
+}
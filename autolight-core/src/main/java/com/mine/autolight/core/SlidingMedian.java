@@ -0,0 +1,210 @@
+package com.mine.autolight.core;
+
+/**
+ * Time-windowed running median.
+ * Samples live in a ring buffer (for expiry order) and, at the same slot index,
+ * in an array-backed treap ordered by value (for rank queries). Insert, evict and
+ * median lookup are O(log n) expected, and nothing is allocated once the
+ * arrays have grown to the window's size.
+ */
+final class SlidingMedian implements LuxStage {
+
+    private static final int NIL = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long windowDurationMs;
+
+    // Ring buffer; slot i is also treap node i
+    private long[] times;
+    private float[] keys;
+    private long[] seqs;
+    private int head = 0;
+    private int size = 0;
+    private long nextSeq = 0;
+
+    // Treap links
+    private int[] left, right, count, prio;
+    private int root = NIL;
+    private int rnd = 0x2545F491;
+
+    SlidingMedian(long windowDurationMs) {
+        this.windowDurationMs = windowDurationMs;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /** Adds a sample, drops the ones older than the window and returns the median. */
+    @Override
+    public float filter(float newValue, long currentTime) {
+        if (size == times.length) grow();
+
+        int slot = (head + size) & (times.length - 1);
+        times[slot] = currentTime;
+        keys[slot] = newValue;
+        seqs[slot] = nextSeq++;
+        left[slot] = NIL;
+        right[slot] = NIL;
+        count[slot] = 1;
+        prio[slot] = nextPriority();
+        root = insert(root, slot);
+        size++;
+
+        while (size > 0 && (currentTime - times[head]) > windowDurationMs) {
+            root = remove(root, head);
+            head = (head + 1) & (times.length - 1);
+            size--;
+        }
+
+        int middle = size / 2;
+        return (size % 2 == 1) ? keys[select(middle)] : (keys[select(middle - 1)] + keys[select(middle)]) / 2.0f;
+    }
+
+    /** Changes the window; samples already held are kept and expire against the new one. */
+    void setWindowMs(long windowDurationMs) {
+        this.windowDurationMs = windowDurationMs;
+    }
+
+    @Override
+    public void configure(ConfigSnapshot config) {
+        setWindowMs(config.medianWindowMs);
+    }
+
+    @Override
+    public void reset(long now, float lux) {
+        clear();
+        filter(lux, now);
+    }
+
+    @Override
+    public void clear() {
+        head = 0;
+        size = 0;
+        root = NIL;
+    }
+
+    int size() { return size; }
+
+    @Override
+    public int depth() { return size; }
+
+    // Ordered by value (same total order as Float.compareTo), ties broken by arrival
+    private boolean less(int a, int b) {
+        int c = Float.compare(keys[a], keys[b]);
+        return c < 0 || (c == 0 && seqs[a] < seqs[b]);
+    }
+
+    private int insert(int t, int n) {
+        if (t == NIL) return n;
+        if (less(n, t)) {
+            left[t] = insert(left[t], n);
+            if (prio[left[t]] > prio[t]) t = rotateRight(t);
+        } else {
+            right[t] = insert(right[t], n);
+            if (prio[right[t]] > prio[t]) t = rotateLeft(t);
+        }
+        update(t);
+        return t;
+    }
+
+    private int remove(int t, int n) {
+        if (t == n) return merge(left[t], right[t]);
+        if (less(n, t)) left[t] = remove(left[t], n);
+        else right[t] = remove(right[t], n);
+        update(t);
+        return t;
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) return b;
+        if (b == NIL) return a;
+        if (prio[a] > prio[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        }
+        left[b] = merge(a, left[b]);
+        update(b);
+        return b;
+    }
+
+    private int select(int k) {
+        int t = root;
+        while (true) {
+            int l = sizeOf(left[t]);
+            if (k < l) {
+                t = left[t];
+            } else if (k == l) {
+                return t;
+            } else {
+                k -= l + 1;
+                t = right[t];
+            }
+        }
+    }
+
+    private int rotateRight(int t) {
+        int l = left[t];
+        left[t] = right[l];
+        right[l] = t;
+        update(t);
+        update(l);
+        return l;
+    }
+
+    private int rotateLeft(int t) {
+        int r = right[t];
+        right[t] = left[r];
+        left[r] = t;
+        update(t);
+        update(r);
+        return r;
+    }
+
+    private void update(int t) {
+        count[t] = 1 + sizeOf(left[t]) + sizeOf(right[t]);
+    }
+
+    private int sizeOf(int t) {
+        return t == NIL ? 0 : count[t];
+    }
+
+    private int nextPriority() {
+        // xorshift32; treap balance only needs the priorities to look random
+        rnd ^= rnd << 13;
+        rnd ^= rnd >>> 17;
+        rnd ^= rnd << 5;
+        return rnd;
+    }
+
+    private void allocate(int capacity) {
+        times = new long[capacity];
+        keys = new float[capacity];
+        seqs = new long[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        count = new int[capacity];
+        prio = new int[capacity];
+    }
+
+    private void grow() {
+        // Compact the live samples to the start of larger arrays and rebuild the tree
+        long[] oldTimes = times;
+        float[] oldKeys = keys;
+        long[] oldSeqs = seqs;
+        int[] oldPrio = prio;
+        int mask = oldTimes.length - 1;
+        allocate(oldTimes.length << 1);
+        root = NIL;
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) & mask;
+            times[i] = oldTimes[from];
+            keys[i] = oldKeys[from];
+            seqs[i] = oldSeqs[from];
+            prio[i] = oldPrio[from];
+            left[i] = NIL;
+            right[i] = NIL;
+            count[i] = 1;
+            root = insert(root, i);
+        }
+        head = 0;
+    }
+}
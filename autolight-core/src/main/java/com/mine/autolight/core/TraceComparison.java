@@ -0,0 +1,196 @@
+package com.mine.autolight.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays one trace through two pipeline configurations side by side and reports how
+ * often each writes, how far their brightness drifts apart, and how their quick-react
+ * snaps line up with the sustained light changes found in the trace:
+ * <pre>
+ *   java -cp autolight-core.jar com.mine.autolight.core.TraceComparison trace.bin \
+ *       "smoothingMode=0" "smoothingMode=1,windowMs=4000"
+ * </pre>
+ * Each configuration is a comma-separated list of overrides on the defaults, in "always" mode.
+ */
+public final class TraceComparison {
+
+    // A sustained change: the level over the next CHANGE_SPAN_MS differs from the one over
+    // the previous CHANGE_SPAN_MS by at least the quick-react thresholds of configuration A
+    private static final long CHANGE_SPAN_MS = 10000;
+
+    private TraceComparison() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: TraceComparison <trace.bin> <key=value,...> <key=value,...>");
+            System.exit(2);
+        }
+        PipelineConfig a = parse(args[1]);
+        PipelineConfig b = parse(args[2]);
+
+        long[] times;
+        float[] raw;
+        int n = 0;
+        try (LuxTraceReader in = new LuxTraceReader(new File(args[0]))) {
+            times = new long[1024];
+            raw = new float[1024];
+            while (in.next()) {
+                if (in.isMarker()) continue;
+                if (n == times.length) {
+                    times = Arrays.copyOf(times, n * 2);
+                    raw = Arrays.copyOf(raw, n * 2);
+                }
+                times[n] = in.timeMs();
+                raw[n] = in.rawLux();
+                n++;
+            }
+        }
+
+        Run ra = new Run(a, times, raw, n);
+        Run rb = new Run(b, times, raw, n);
+        long[] changes = sustainedChanges(times, raw, n, a.quickReactLux, a.quickReactPercent);
+
+        System.out.println(n + " events, " + changes.length + " sustained changes");
+        ra.print("A [" + args[1] + "]", changes);
+        rb.print("B [" + args[2] + "]", changes);
+
+        long both = 0, apart = 0, maxGap = 0;
+        double gapArea = 0;
+        for (int i = 1; i < n; i++) {
+            int va = ra.held[i - 1], vb = rb.held[i - 1];
+            if (va == -1 || vb == -1) continue;
+            long dt = times[i] - times[i - 1];
+            int gap = Math.abs(va - vb);
+            both += dt;
+            if (gap != 0) apart += dt;
+            gapArea += (double) gap * dt;
+            maxGap = Math.max(maxGap, gap);
+        }
+        if (both > 0) {
+            System.out.println(String.format(Locale.US, "Apart %.1f%% of the time, mean |A-B| %.2f, max %d",
+                    100.0 * apart / both, gapArea / both, maxGap));
+        }
+    }
+
+    /** One configuration replayed over the whole trace. */
+    private static final class Run {
+        final int[] held;
+        long changes = 0, travel = 0;
+        long[] snaps = new long[16];
+        int snapCount = 0;
+
+        Run(PipelineConfig config, long[] times, float[] raw, int n) {
+            TraceReplayer replayer = new TraceReplayer(config, 255);
+            held = new int[n];
+            int current = -1;
+            long snapsBefore = 0;
+            for (int i = 0; i < n; i++) {
+                int v = replayer.step(times[i], raw[i]);
+                if (v != -1) {
+                    if (current != -1) travel += Math.abs(v - current);
+                    if (v != current) changes++;
+                    current = v;
+                }
+                held[i] = current;
+                long s = replayer.pipeline().getQuickReactSnaps();
+                if (s != snapsBefore) {
+                    snapsBefore = s;
+                    if (snapCount == snaps.length) snaps = Arrays.copyOf(snaps, snapCount * 2);
+                    snaps[snapCount++] = times[i];
+                }
+            }
+        }
+
+        void print(String label, long[] changeTimes) {
+            System.out.println(label + ": " + changes + " changes, " + travel + " total travel");
+
+            long[] latencies = new long[changeTimes.length];
+            int matched = 0;
+            int s = 0;
+            for (long c : changeTimes) {
+                while (s < snapCount && snaps[s] < c) s++;
+                if (s < snapCount && snaps[s] - c <= CHANGE_SPAN_MS) latencies[matched++] = snaps[s] - c;
+            }
+            int falseSnaps = 0;
+            int c = 0;
+            for (int i = 0; i < snapCount; i++) {
+                while (c + 1 < changeTimes.length && changeTimes[c + 1] <= snaps[i]) c++;
+                boolean explained = changeTimes.length > 0 && changeTimes[c] <= snaps[i] && snaps[i] - changeTimes[c] <= CHANGE_SPAN_MS;
+                if (!explained) falseSnaps++;
+            }
+            Arrays.sort(latencies, 0, matched);
+            String latency = (matched == 0) ? "n/a"
+                    : "median " + latencies[matched / 2] + " ms, max " + latencies[matched - 1] + " ms";
+            System.out.println("    quick-react: " + snapCount + " snaps, " + falseSnaps + " false, "
+                    + matched + "/" + changeTimes.length + " changes caught, latency " + latency);
+        }
+    }
+
+    /** Start times of sustained changes, at most one per {@link #CHANGE_SPAN_MS}. */
+    static long[] sustainedChanges(long[] times, float[] raw, int n, int minLux, int minPercent) {
+        double minLog = Math.log(1 + minPercent / 100.0);
+        double[] logs = new double[n];
+        double[] prefix = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            logs[i] = Math.log(Math.max(raw[i], 1f));
+            prefix[i + 1] = prefix[i] + logs[i];
+        }
+        long[] out = new long[16];
+        int count = 0;
+        long lastChange = Long.MIN_VALUE;
+        int lo = 0, hi = 0;
+        for (int i = 0; i < n; i++) {
+            // before: [t - span, t), after: [t, t + span)
+            while (times[lo] < times[i] - CHANGE_SPAN_MS) lo++;
+            while (hi < n && times[hi] < times[i] + CHANGE_SPAN_MS) hi++;
+            if (lo == i || hi == n) continue;
+            double before = (prefix[i] - prefix[lo]) / (i - lo);
+            double after = (prefix[hi] - prefix[i]) / (hi - i);
+            double step = after - before;
+            boolean sustained = Math.abs(step) > minLog && Math.abs(logs[i] - before) > minLog
+                    && Math.signum(logs[i] - before) == Math.signum(step)
+                    && Math.abs(Math.exp(after) - Math.exp(before)) > minLux;
+            if (!sustained) continue;
+            if (lastChange == Long.MIN_VALUE || times[i] - lastChange > CHANGE_SPAN_MS) {
+                if (count == out.length) out = Arrays.copyOf(out, count * 2);
+                out[count++] = times[i];
+            }
+            lastChange = times[i];
+        }
+        return Arrays.copyOf(out, count);
+    }
+
+    static PipelineConfig parse(String spec) {
+        PipelineConfig c = new PipelineConfig();
+        c.mode = PipelineConfig.MODE_ALWAYS;
+        for (String item : spec.split(",")) {
+            if (item.trim().isEmpty()) continue;
+            String[] kv = item.split("=", 2);
+            if (kv.length != 2) throw new IllegalArgumentException("expected key=value: " + item);
+            set(c, kv[0].trim(), kv[1].trim());
+        }
+        return c;
+    }
+
+    private static void set(PipelineConfig c, String key, String value) {
+        switch (key) {
+            case "mode": c.mode = Integer.parseInt(value); break;
+            case "curveInterpolation": c.curveInterpolation = Integer.parseInt(value); break;
+            case "hysteresisThreshold": c.hysteresisThreshold = Float.parseFloat(value); break;
+            case "absoluteThreshold": c.absoluteThreshold = Integer.parseInt(value); break;
+            case "windowMs": c.windowMs = Integer.parseInt(value); break;
+            case "smoothingMode": c.smoothingMode = Integer.parseInt(value); break;
+            case "quickReactLux": c.quickReactLux = Integer.parseInt(value); break;
+            case "quickReactPercent": c.quickReactPercent = Integer.parseInt(value); break;
+            case "quickReactEngine": c.quickReactEngine = Integer.parseInt(value); break;
+            case "changePointThreshold": c.changePointThreshold = Float.parseFloat(value); break;
+            case "preFilter": c.preFilter = Integer.parseInt(value); break;
+            case "medianWindowMs": c.medianWindowMs = Long.parseLong(value); break;
+            case "debounceMs": c.debounceMs = Long.parseLong(value); break;
+            default: throw new IllegalArgumentException("unknown setting: " + key);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.mine.autolight.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Feeds a recorded trace back through a fresh {@link LuxPipeline} on a {@link VirtualClock}
+ * that jumps straight to each record's time, firing any timers due on the way, so hours
+ * of data replay in milliseconds. Lifecycle markers in the trace are replayed as the
+ * same calls into the pipeline, so screen off/on, unlock bursts, warm starts and the
+ * suspend timer behave as they did on the device. Before the first of them (and in
+ * traces without any) an event starts listening if the pipeline is not.
+ * The simulated sensor has a FIFO, so a configuration with a batch latency replays
+ * batched: records are grouped into flushes of that latency and delivered together
+ * when it runs out, as the hardware would.
+ * Run as a program it replays with the recorded settings and display maximum (the
+ * defaults in "always" mode for a version 1 trace), optionally in another work mode, and
+ * prints every brightness decision and how many events disagree with the recording:
+ * <pre>
+ *   java -cp autolight-core.jar com.mine.autolight.core.TraceReplayer trace.bin [mode]
+ * </pre>
+ */
+public final class TraceReplayer implements SensorSource, BrightnessSink {
+
+    public interface DecisionListener {
+        /**
+         * Called for every event; {@code value} is what the event decided, -1 for nothing.
+         * Unbatched that is also what was written; batched only the last of a flush is.
+         */
+        void onEvent(long timeMs, float rawLux, int recorded, int value);
+
+        /** Called whenever a value reaches the brightness output, at replay time {@code timeMs}. */
+        default void onWrite(long timeMs, int value) { }
+    }
+
+    private final VirtualClock clock = new VirtualClock(0);
+    private final LuxPipeline pipeline;
+    private final int batchLatencyMs;
+    private DecisionListener listener;
+    // Set by the first start, stop, screen or unlock marker; from then on they alone decide when to listen
+    private boolean driven = false;
+
+    // Records of the flush being collected, delivered once batchDue has passed
+    private long[] batchTimes = new long[64];
+    private float[] batchRaw = new float[64];
+    private int[] batchRecorded = new int[64];
+    private int batchSize = 0;
+    private long batchDue;
+
+    public TraceReplayer(PipelineConfig config, int displayMaximum) {
+        batchLatencyMs = config.batchLatencyMs;
+        pipeline = new LuxPipeline(clock, clock, this, this, ConfigSnapshot.of(config), displayMaximum);
+    }
+
+    /** A replayer with the settings and display maximum {@code in} was recorded with. */
+    public static TraceReplayer forTrace(LuxTraceReader in) {
+        return new TraceReplayer(recordedConfig(in), recordedMaximum(in));
+    }
+
+    private static PipelineConfig recordedConfig(LuxTraceReader in) {
+        if (in.config() != null) return in.config();
+        PipelineConfig config = new PipelineConfig();
+        config.mode = PipelineConfig.MODE_ALWAYS;
+        return config;
+    }
+
+    private static int recordedMaximum(LuxTraceReader in) {
+        return (in.displayMaximum() > 0) ? in.displayMaximum() : 255;
+    }
+
+    /** Replays every record of {@code in}; returns the number of events replayed. */
+    public long replay(LuxTraceReader in, DecisionListener out) {
+        listener = out;
+        long events = 0;
+        try {
+            while (in.next()) {
+                long timeMs = in.timeMs();
+                if (in.isMarker()) {
+                    if (batchSize > 0) deliverBatch(Math.min(batchDue, timeMs));
+                    clock.advanceTo(timeMs);
+                    lifecycle(in.marker());
+                    continue;
+                }
+                if (batchSize > 0 && timeMs > batchDue) deliverBatch(batchDue);
+                if (batchSize == 0) {
+                    clock.advanceTo(timeMs);
+                    // Without markers, a recorded event means the device was listening at the time
+                    if (!driven && !pipeline.isListening()) pipeline.start();
+                }
+                if (pipeline.isBatched()) {
+                    collect(timeMs, in.rawLux(), in.brightness());
+                } else {
+                    pipeline.onSample(in.rawLux(), timeMs);
+                    out.onEvent(timeMs, in.rawLux(), in.brightness(), pipeline.getEventWrite());
+                }
+                events++;
+            }
+            if (batchSize > 0) deliverBatch(batchDue);
+        } finally {
+            listener = null;
+        }
+        return events;
+    }
+
+    private void collect(long timeMs, float rawLux, int recorded) {
+        if (batchSize == 0) batchDue = timeMs + batchLatencyMs;
+        if (batchSize == batchTimes.length) {
+            batchTimes = Arrays.copyOf(batchTimes, batchSize * 2);
+            batchRaw = Arrays.copyOf(batchRaw, batchSize * 2);
+            batchRecorded = Arrays.copyOf(batchRecorded, batchSize * 2);
+        }
+        batchTimes[batchSize] = timeMs;
+        batchRaw[batchSize] = rawLux;
+        batchRecorded[batchSize] = recorded;
+        batchSize++;
+    }
+
+    /** The same call the device's host made into the pipeline. */
+    private void lifecycle(int marker) {
+        switch (marker) {
+            case LuxTrace.MARK_START: pipeline.start(); break;
+            case LuxTrace.MARK_STOP: pipeline.stop(); break;
+            case LuxTrace.MARK_SCREEN_OFF: pipeline.resetForScreenOn(); break;
+            case LuxTrace.MARK_UNLOCK: pipeline.beginBurst(); break;
+            case LuxTrace.MARK_LANDSCAPE: pipeline.setLandscape(true); return;
+            case LuxTrace.MARK_PORTRAIT: pipeline.setLandscape(false); return;
+            default: return;
+        }
+        driven = true;
+    }
+
+    /** The FIFO flush at {@code atMs}: every collected sample at once, each with its own timestamp. */
+    private void deliverBatch(long atMs) {
+        clock.advanceTo(atMs);
+        pipeline.beginBatch();
+        for (int i = 0; i < batchSize; i++) {
+            pipeline.onSample(batchRaw[i], batchTimes[i]);
+            listener.onEvent(batchTimes[i], batchRaw[i], batchRecorded[i], pipeline.getEventWrite());
+        }
+        batchSize = 0;
+        pipeline.endBatch();
+    }
+
+    /** Feeds one unbatched event at {@code timeMs}; returns the brightness it wrote, or -1. */
+    public int step(long timeMs, float rawLux) {
+        clock.advanceTo(timeMs);
+        // A recorded event means the device was listening at the time
+        if (!pipeline.isListening()) pipeline.start();
+        pipeline.onSample(rawLux, timeMs);
+        return pipeline.getEventWrite();
+    }
+
+    public LuxPipeline pipeline() { return pipeline; }
+
+    @Override public boolean isAvailable() { return true; }
+    @Override public boolean hasFifo() { return true; }
+    @Override public void register(int samplingPeriodUs, int maxReportLatencyUs) { }
+    @Override public void unregister() { }
+
+    @Override
+    public void write(int value) {
+        if (listener != null) listener.onWrite(clock.now(), value);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceReplayer <trace.bin> [mode]");
+            System.exit(2);
+        }
+        long[] mismatches = new long[1];
+        long start = System.nanoTime();
+        long events;
+        try (LuxTraceReader in = new LuxTraceReader(new File(args[0]))) {
+            PipelineConfig config = recordedConfig(in);
+            if (args.length > 1) config.mode = Integer.parseInt(args[1]);
+            events = new TraceReplayer(config, recordedMaximum(in)).replay(in, (timeMs, rawLux, recorded, value) -> {
+                if (value != -1) System.out.println(timeMs + "," + rawLux + "," + value);
+                if (value != recorded) mismatches[0]++;
+            });
+        }
+        long tookMs = (System.nanoTime() - start) / 1000000;
+        System.err.println(events + " events replayed in " + tookMs + " ms, " + mismatches[0] + " differ from the recording");
+    }
+}
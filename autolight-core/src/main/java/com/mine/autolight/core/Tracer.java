@@ -0,0 +1,19 @@
+package com.mine.autolight.core;
+
+/**
+ * System trace hooks (android.os.Trace on a device). Sections must nest and be ended on
+ * the thread that began them. Callers skip every call when tracing is off, so
+ * {@link #NONE} is only a placeholder.
+ */
+public interface Tracer {
+
+    Tracer NONE = new Tracer() {
+        @Override public void beginSection(String name) { }
+        @Override public void endSection() { }
+        @Override public void counter(String name, long value) { }
+    };
+
+    void beginSection(String name);
+    void endSection();
+    void counter(String name, long value);
+}
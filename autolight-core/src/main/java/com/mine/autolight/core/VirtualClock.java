@@ -0,0 +1,79 @@
+package com.mine.autolight.core;
+
+import java.util.Arrays;
+
+/**
+ * Clock and scheduler driven by the caller instead of real time. {@link #advanceTo} runs
+ * every task that falls due on the way, each at its own due time, so hours of sensor
+ * activity including the suspend and burst timers take milliseconds to simulate.
+ * Tasks due at the same time run in the order they were posted. Not thread-safe.
+ */
+public final class VirtualClock implements Clock, Scheduler {
+
+    private long now;
+    private Runnable[] tasks = new Runnable[8];
+    private long[] due = new long[8];
+    private long[] seq = new long[8];
+    private int size = 0;
+    private long nextSeq = 0;
+
+    public VirtualClock(long startMs) {
+        now = startMs;
+    }
+
+    @Override
+    public long now() { return now; }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        if (size == tasks.length) {
+            tasks = Arrays.copyOf(tasks, size * 2);
+            due = Arrays.copyOf(due, size * 2);
+            seq = Arrays.copyOf(seq, size * 2);
+        }
+        tasks[size] = task;
+        due[size] = now + Math.max(0, delayMs);
+        seq[size] = nextSeq++;
+        size++;
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (tasks[i] == task) continue;
+            tasks[kept] = tasks[i];
+            due[kept] = due[i];
+            seq[kept] = seq[i];
+            kept++;
+        }
+        for (int i = kept; i < size; i++) tasks[i] = null;
+        size = kept;
+    }
+
+    /** Moves time forward to {@code timeMs}, running due tasks; never moves it back. */
+    public void advanceTo(long timeMs) {
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < size; i++) {
+                if (due[i] > timeMs) continue;
+                if (next == -1 || due[i] < due[next] || (due[i] == due[next] && seq[i] < seq[next])) next = i;
+            }
+            if (next == -1) break;
+            Runnable task = tasks[next];
+            now = Math.max(now, due[next]);
+            size--;
+            tasks[next] = tasks[size];
+            due[next] = due[size];
+            seq[next] = seq[size];
+            tasks[size] = null;
+            task.run();
+        }
+        now = Math.max(now, timeMs);
+    }
+
+    public void advanceBy(long ms) { advanceTo(now + ms); }
+
+    /** Number of tasks still waiting to run. */
+    public int pending() { return size; }
+}
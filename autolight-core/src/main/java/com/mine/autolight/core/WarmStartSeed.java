@@ -0,0 +1,36 @@
+package com.mine.autolight.core;
+
+/**
+ * Last filtered lux captured at screen off, used to start the next wake from where the
+ * previous one ended. Confidence starts from how settled the pipeline was and fades
+ * linearly to zero over the configured interval.
+ */
+final class WarmStartSeed {
+
+    static final float MIN_CONFIDENCE = 0.25f;
+
+    private float lux = -1f;
+    private long time;
+    private float confidence;
+
+    void capture(float lux, long time, float confidence) {
+        this.lux = lux;
+        this.time = time;
+        this.confidence = confidence;
+    }
+
+    /** Returns the seed lux if it is still trustworthy at {@code now}, -1 otherwise; the seed is used up either way. */
+    float take(long now, long maxAgeMs) {
+        float seed = lux;
+        lux = -1f;
+        if (seed < 0f || maxAgeMs <= 0) return -1f;
+        long age = now - time;
+        if (age < 0 || age > maxAgeMs) return -1f;
+        float remaining = confidence * (1f - (float) age / maxAgeMs);
+        return remaining >= MIN_CONFIDENCE ? seed : -1f;
+    }
+
+    void clear() {
+        lux = -1f;
+    }
+}
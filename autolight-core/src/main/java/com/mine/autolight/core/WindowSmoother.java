@@ -0,0 +1,30 @@
+package com.mine.autolight.core;
+
+/** Mean over the last {@code windowMs} of samples, per sample or time-weighted. O(1) time, window-sized memory. */
+final class WindowSmoother implements LuxStage {
+
+    private final LuxWindow window = new LuxWindow();
+    private long windowMs;
+    private boolean timeWeighted;
+
+    WindowSmoother(ConfigSnapshot config) {
+        configure(config);
+    }
+
+    @Override
+    public float filter(float lux, long now) {
+        window.add(now, lux);
+        window.expire(now, windowMs);
+        return timeWeighted ? window.timeWeightedAverage(now, windowMs) : window.sum() / window.size();
+    }
+
+    @Override public void reset(long now, float lux) { window.reset(now, lux); }
+    @Override public void clear() { window.clear(); }
+    @Override public int depth() { return window.size(); }
+
+    @Override
+    public void configure(ConfigSnapshot config) {
+        windowMs = config.windowMs;
+        timeWeighted = config.smoothingMode == PipelineConfig.SMOOTHING_TIME;
+    }
+}
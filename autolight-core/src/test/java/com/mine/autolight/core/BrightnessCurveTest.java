@@ -0,0 +1,137 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The compiled step table must agree with direct evaluation at every integer lux the
+ * sensor can report, both with the original four-point log10 formula and with the
+ * N-point reference for either interpolation.
+ */
+public class BrightnessCurveTest {
+
+    private static final int MAX_LUX = 210000;
+    private static final int[] SYSTEM_MAXIMUMS = { 255, 1023, 4095 };
+
+    @Test
+    public void matchesOriginalFormulaOnFourPoints() {
+        Random rnd = new Random(3);
+        int[][] lux = new int[41][];
+        int[][] pct = new int[41][];
+        lux[0] = new int[] { 1, 1000, 10000, 100000 };
+        pct[0] = new int[] { 1, 15, 30, 60 };
+        for (int c = 1; c < lux.length; c++) {
+            lux[c] = distinctSorted(rnd, 4);
+            pct[c] = new int[4];
+            for (int i = 0; i < 4; i++) pct[c][i] = 1 + rnd.nextInt(100);
+            if (c % 2 == 0) Arrays.sort(pct[c]);
+        }
+
+        for (int c = 0; c < lux.length; c++) {
+            for (int systemMax : SYSTEM_MAXIMUMS) {
+                BrightnessCurve curve = BrightnessCurve.compile(lux[c], pct[c], PipelineConfig.CURVE_LINEAR, systemMax);
+                for (int x = 0; x <= MAX_LUX; x++) {
+                    check(curve, x, originalPercent(lux[c], pct[c], x), systemMax, lux[c], pct[c], PipelineConfig.CURVE_LINEAR);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesReferenceOnRandomCurves() {
+        Random rnd = new Random(11);
+        for (int c = 0; c < 60; c++) {
+            int n = 1 + rnd.nextInt(PipelineConfig.MAX_CURVE_POINTS);
+            int[] lux = distinctSorted(rnd, n);
+            int[] pct = new int[n];
+            for (int i = 0; i < n; i++) pct[i] = 1 + rnd.nextInt(100);
+            if (c % 2 == 0) Arrays.sort(pct);
+            int systemMax = SYSTEM_MAXIMUMS[c % SYSTEM_MAXIMUMS.length];
+
+            for (int interpolation : new int[] { PipelineConfig.CURVE_LINEAR, PipelineConfig.CURVE_MONOTONE }) {
+                double[] m = (interpolation == PipelineConfig.CURVE_MONOTONE) ? BrightnessCurve.tangents(lux, pct) : null;
+                BrightnessCurve curve = BrightnessCurve.compile(lux, pct, interpolation, systemMax);
+                for (int x = 0; x <= MAX_LUX; x++) {
+                    check(curve, x, BrightnessCurve.referencePercent(lux, pct, m, x), systemMax, lux, pct, interpolation);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void monotoneSplineStaysWithinEachSegment() {
+        Random rnd = new Random(5);
+        for (int c = 0; c < 60; c++) {
+            int n = 2 + rnd.nextInt(PipelineConfig.MAX_CURVE_POINTS - 1);
+            int[] lux = distinctSorted(rnd, n);
+            int[] pct = new int[n];
+            for (int i = 0; i < n; i++) pct[i] = 1 + rnd.nextInt(100);
+            double[] m = BrightnessCurve.tangents(lux, pct);
+            for (int s = 1; s < n; s++) {
+                int lo = Math.min(pct[s - 1], pct[s]);
+                int hi = Math.max(pct[s - 1], pct[s]);
+                int prev = pct[s - 1];
+                for (int x = lux[s - 1]; x <= lux[s]; x += Math.max(1, (lux[s] - lux[s - 1]) / 500)) {
+                    int p = BrightnessCurve.referencePercent(lux, pct, m, x);
+                    boolean rising = pct[s] >= pct[s - 1];
+                    if (p < lo || p > hi || (rising ? p < prev : p > prev)) {
+                        fail(Arrays.toString(lux) + " " + Arrays.toString(pct) + ": " + p + "% at " + x + " lux leaves the segment");
+                    }
+                    prev = p;
+                }
+            }
+        }
+    }
+
+    private static void check(BrightnessCurve curve, int x, int expected, int systemMax, int[] lux, int[] pct, int interpolation) {
+        int step = curve.step(x);
+        if (curve.percentOf(step) == expected && curve.valueOf(step) == originalValue(expected, systemMax)) return;
+        String where = Arrays.toString(lux) + " " + Arrays.toString(pct) + " interpolation " + interpolation + " at " + x + " lux";
+        assertEquals(where, expected, curve.percentOf(step));
+        assertEquals(where, originalValue(expected, systemMax), curve.valueOf(step));
+    }
+
+    /** Distinct lux values in 0..MAX_LUX, ascending and spread log-uniformly. */
+    private static int[] distinctSorted(Random rnd, int n) {
+        int[] out = new int[n];
+        int filled = 0;
+        while (filled < n) {
+            int v = (int) Math.pow(10, rnd.nextDouble() * Math.log10(MAX_LUX + 1)) - 1;
+            boolean seen = false;
+            for (int i = 0; i < filled; i++) seen |= out[i] == v;
+            if (!seen) out[filled++] = v;
+        }
+        Arrays.sort(out);
+        return out;
+    }
+
+    /** LightControl.setBrightness before the curve was compiled: four points, log10 lerp. */
+    private static int originalPercent(int[] l, int[] b, int luxValue) {
+        int brightnessPercent;
+        if (luxValue <= l[0]) brightnessPercent = b[0];
+        else if (luxValue >= l[3]) brightnessPercent = b[3];
+        else {
+            float x1, y1, x2, y2;
+            if (luxValue <= l[1]) { x1 = l[0]; x2 = l[1]; y1 = b[0]; y2 = b[1]; }
+            else if (luxValue <= l[2]) { x1 = l[1]; x2 = l[2]; y1 = b[1]; y2 = b[2]; }
+            else { x1 = l[2]; x2 = l[3]; y1 = b[2]; y2 = b[3]; }
+            double lx = Math.log10((double) luxValue + 1.0);
+            double lx1 = Math.log10((double) x1 + 1.0);
+            double lx2 = Math.log10((double) x2 + 1.0);
+            double t = (lx2 - lx1 == 0) ? 0 : (lx - lx1) / (lx2 - lx1);
+            t = Math.max(0.0, Math.min(1.0, t));
+            brightnessPercent = (int) Math.round(y1 + (y2 - y1) * t);
+        }
+        return brightnessPercent;
+    }
+
+    private static int originalValue(int brightnessPercent, int systemMax) {
+        if (brightnessPercent <= 1) return 1;
+        return Math.max(1, Math.min(systemMax, Math.round((brightnessPercent / 100.0f) * systemMax)));
+    }
+}
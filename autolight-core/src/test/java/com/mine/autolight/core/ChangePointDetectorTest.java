@@ -0,0 +1,124 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The change-point engine has to confirm a real step sooner than the debounce engine and
+ * must not snap on flicker the debounce engine rides out. Both replay the same synthetic
+ * traces with the default settings, one sample every 200 ms.
+ */
+public class ChangePointDetectorTest {
+
+    private static final long SAMPLE_MS = 200;
+    private static final int LEVEL_SAMPLES = 100; // 20 s
+    private static final int TRACES = 50;
+
+    private final ConfigSnapshot config = ConfigSnapshot.of(new PipelineConfig());
+
+    @Test
+    public void snapsToAStepSoonerThanTheDebounce() {
+        Random rnd = new Random(5);
+        for (int trace = 0; trace < TRACES; trace++) {
+            // Up or down by a factor of 5 to 50, between 20 and 2000 lux
+            float before = 20f + rnd.nextFloat() * 200f;
+            float after = before * (5f + rnd.nextFloat() * 45f);
+            if (rnd.nextBoolean()) {
+                float t = before;
+                before = after;
+                after = t;
+            }
+            float[] lux = new float[2 * LEVEL_SAMPLES];
+            for (int i = 0; i < lux.length; i++) {
+                lux[i] = ((i < LEVEL_SAMPLES) ? before : after) * (1f + (float) rnd.nextGaussian() * 0.05f);
+            }
+
+            List<Long> debounce = replay(new QuickReactDetector(), lux);
+            List<Long> changePoint = replay(new ChangePointDetector(), lux);
+
+            long stepAt = LEVEL_SAMPLES * SAMPLE_MS;
+            assertEquals("trace " + trace + ": debounce snaps", 1, debounce.size());
+            assertEquals("trace " + trace + ": change-point snaps", 1, changePoint.size());
+            long debounceLatency = debounce.get(0) - stepAt;
+            long changePointLatency = changePoint.get(0) - stepAt;
+            assertTrue("trace " + trace + ": " + changePointLatency + " ms against " + debounceLatency + " ms",
+                    changePointLatency < debounceLatency);
+        }
+    }
+
+    @Test
+    public void ridesOutFlickerWithoutFalseSnaps() {
+        Random rnd = new Random(8);
+        for (int trace = 0; trace < TRACES; trace++) {
+            // Foliage or a flickering lamp: every other sample bright, then dim, by up to 4x,
+            // with the odd single-sample glint ten times the level
+            float level = 100f + rnd.nextFloat() * 2000f;
+            float[] lux = new float[2 * LEVEL_SAMPLES];
+            for (int i = 0; i < lux.length; i++) {
+                double swing = 0.5 + rnd.nextDouble();
+                float value = level * (float) Math.exp((i % 2 == 0) ? swing : -swing);
+                if (rnd.nextInt(25) == 0) value = level * 10f;
+                lux[i] = value;
+            }
+
+            int debounce = replay(new QuickReactDetector(), lux).size();
+            int changePoint = replay(new ChangePointDetector(), lux).size();
+            assertTrue("trace " + trace + ": " + changePoint + " snaps against " + debounce,
+                    changePoint <= debounce);
+        }
+    }
+
+    @Test
+    public void resetForgetsTheLevelAndTheEvidence() {
+        ChangePointDetector detector = new ChangePointDetector();
+        long now = 0;
+        for (int i = 0; i < 20; i++) detector.update(50f, 50f, now += SAMPLE_MS, config);
+        assertFalse(detector.update(1000f, 50f, now += SAMPLE_MS, config));
+        assertTrue(detector.isPending());
+
+        detector.reset();
+        assertFalse(detector.isPending());
+        // The next reading starts a new level, so staying there is no change at all
+        for (int i = 0; i < 20; i++) {
+            assertFalse(detector.update(1000f, 50f, now += SAMPLE_MS, config));
+            assertFalse(detector.isPending());
+        }
+    }
+
+    @Test
+    public void ignoresReadingsThatAreNotNumbers() {
+        ChangePointDetector detector = new ChangePointDetector();
+        long now = 0;
+        for (int i = 0; i < 20; i++) detector.update(50f, 50f, now += SAMPLE_MS, config);
+        assertFalse(detector.update(Float.NaN, 50f, now += SAMPLE_MS, config));
+        assertFalse(detector.update(Float.POSITIVE_INFINITY, 50f, now += SAMPLE_MS, config));
+        assertFalse(detector.isPending());
+
+        // The level survived them: a real step is still caught, within a few samples
+        int samples = 0;
+        while (!detector.update(1000f, 50f, now += SAMPLE_MS, config)) {
+            assertTrue("no snap after " + samples + " samples", ++samples < 5);
+        }
+    }
+
+    /** Feeds the trace through the engine and returns when it snapped. */
+    private List<Long> replay(QuickReact engine, float[] lux) {
+        List<Long> snaps = new ArrayList<>();
+        float applied = lux[0];
+        for (int i = 0; i < lux.length; i++) {
+            long now = i * SAMPLE_MS;
+            if (engine.update(lux[i], applied, now, config)) {
+                snaps.add(now);
+                applied = lux[i];
+            }
+        }
+        return snaps;
+    }
+}
@@ -0,0 +1,111 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Once its windows have grown to size, LuxPipeline.onSample must not allocate: the
+ * per-thread allocation counter has to stand still over half a million events, for every
+ * smoothing mode, pre-filter and quick-react engine. The best of a few rounds counts, so
+ * a one-off lazy initialisation elsewhere in the JVM cannot fail it.
+ */
+public class LuxPipelineAllocationTest {
+
+    private static final int TRACE_LENGTH = 1 << 14;
+    private static final int WARMUP_EVENTS = 200_000;
+    private static final int MEASURED_EVENTS = 500_000;
+    private static final int ROUNDS = 3;
+    private static final long PERIOD_MS = 200;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final float[] trace = trace(7);
+    private long now;
+    private int lastWrite;
+
+    private final SensorSource sensor = new SensorSource() {
+        @Override public boolean isAvailable() { return true; }
+        @Override public boolean hasFifo() { return false; }
+        @Override public void register(int samplingPeriodUs, int maxReportLatencyUs) { }
+        @Override public void unregister() { }
+    };
+
+    // ALWAYS mode never arms a timer
+    private final Scheduler scheduler = new Scheduler() {
+        @Override public void postDelayed(Runnable task, long delayMs) { }
+        @Override public void cancel(Runnable task) { }
+    };
+
+    @Test
+    public void steadyStateAllocatesNothing() {
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        int[] smoothing = { PipelineConfig.SMOOTHING_COUNT, PipelineConfig.SMOOTHING_TIME,
+                PipelineConfig.SMOOTHING_EXPONENTIAL, PipelineConfig.SMOOTHING_KALMAN };
+        int[] preFilters = { PipelineConfig.PREFILTER_MEDIAN, PipelineConfig.PREFILTER_NONE };
+        int[] engines = { PipelineConfig.QUICK_REACT_DEBOUNCE, PipelineConfig.QUICK_REACT_CHANGE_POINT };
+        for (int s : smoothing) {
+            for (int p : preFilters) {
+                for (int e : engines) {
+                    PipelineConfig config = new PipelineConfig();
+                    config.mode = PipelineConfig.MODE_ALWAYS;
+                    config.smoothingMode = s;
+                    config.preFilter = p;
+                    config.quickReactEngine = e;
+                    assertEquals("smoothing " + s + ", pre-filter " + p + ", quick-react " + e,
+                            0L, allocatedPerRun(config));
+                }
+            }
+        }
+    }
+
+    /** Fewest bytes allocated by MEASURED_EVENTS events after the warm-up, net of the counter's own cost. */
+    private long allocatedPerRun(PipelineConfig config) {
+        LuxPipeline pipeline = new LuxPipeline(() -> now, scheduler, sensor, value -> lastWrite = value,
+                ConfigSnapshot.of(config), 255);
+        now = 0;
+        pipeline.start();
+        run(pipeline, 0, WARMUP_EVENTS);
+
+        long id = Thread.currentThread().getId();
+        long overhead = threads.getThreadAllocatedBytes(id);
+        overhead = threads.getThreadAllocatedBytes(id) - overhead;
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && best > 0; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            run(pipeline, WARMUP_EVENTS + round * MEASURED_EVENTS, MEASURED_EVENTS);
+            long after = threads.getThreadAllocatedBytes(id);
+            best = Math.min(best, after - before - overhead);
+        }
+        return best;
+    }
+
+    private void run(LuxPipeline pipeline, int from, int events) {
+        for (int i = from; i < from + events; i++) {
+            pipeline.onSample(trace[i & (TRACE_LENGTH - 1)], now += PERIOD_MS);
+        }
+    }
+
+    /** Noisy indoor levels with room changes, bright daylight and dark stretches. */
+    private static float[] trace(long seed) {
+        Random rnd = new Random(seed);
+        float[] out = new float[TRACE_LENGTH];
+        float level = 300f;
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            if (i % 512 == 0) {
+                int kind = rnd.nextInt(4);
+                level = (kind == 0) ? 0.5f : (kind == 1) ? 20000f + rnd.nextFloat() * 80000f : 20f + rnd.nextFloat() * 5000f;
+            }
+            out[i] = Math.max(0f, level * (1f + (float) rnd.nextGaussian() * 0.08f));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,112 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Sensor registration and warm start while samples arrive in hardware batches. */
+public class LuxPipelineBatchingTest {
+
+    private final VirtualClock clock = new VirtualClock(0);
+    private LuxPipeline pipeline;
+    private int registrations = 0;
+    private int midBatchChanges = 0;
+    private int lastPeriodUs = 0;
+
+    private final SensorSource sensor = new SensorSource() {
+        @Override public boolean isAvailable() { return true; }
+        @Override public boolean hasFifo() { return true; }
+
+        @Override
+        public void register(int samplingPeriodUs, int maxReportLatencyUs) {
+            registrations++;
+            lastPeriodUs = samplingPeriodUs;
+            if (pipeline.isBatchOpen()) midBatchChanges++;
+        }
+
+        @Override
+        public void unregister() {
+            if (pipeline.isBatchOpen()) midBatchChanges++;
+        }
+    };
+
+    private LuxPipeline create(int smoothingMode) {
+        PipelineConfig config = new PipelineConfig();
+        config.mode = PipelineConfig.MODE_ALWAYS;
+        config.smoothingMode = smoothingMode;
+        config.batchLatencyMs = 1000;
+        pipeline = new LuxPipeline(clock, clock, sensor, value -> { }, ConfigSnapshot.of(config), 255);
+        return pipeline;
+    }
+
+    /** Delivers samples every {@code periodMs} from {@code from} as one flush at {@code from + 1000}. */
+    private void flush(long from, long periodMs, float lux) {
+        clock.advanceTo(from + 1000);
+        pipeline.beginBatch();
+        for (long t = from; t < from + 1000; t += periodMs) pipeline.onSample(lux, t);
+        pipeline.endBatch();
+    }
+
+    @Test
+    public void governorDoesNotReRegisterWhileBatched() {
+        create(PipelineConfig.SMOOTHING_COUNT).start();
+        assertTrue(pipeline.isBatched());
+        int initial = registrations;
+
+        // Long stable stretches and sudden jumps: unbatched this goes slow and fast
+        for (long t = 0; t < 120000; t += 1000) {
+            float lux = ((t / 20000) % 2 == 0) ? 50f : 5000f;
+            flush(t, 200, lux);
+        }
+        assertEquals("rate changes", initial, registrations);
+        assertEquals(200000, lastPeriodUs);
+    }
+
+    @Test
+    public void reRegistrationInsideBatchWaitsForItsEnd() {
+        create(PipelineConfig.SMOOTHING_COUNT).start();
+        flush(0, 200, 100f);
+
+        // An unlock burst starting while a flush is being delivered
+        clock.advanceTo(2000);
+        pipeline.beginBatch();
+        pipeline.onSample(100f, 1000);
+        pipeline.beginBurst();
+        pipeline.onSample(100f, 1200);
+        int before = registrations;
+        pipeline.endBatch();
+
+        assertEquals(0, midBatchChanges);
+        assertEquals(before + 1, registrations);
+        assertEquals(SensorSource.PERIOD_FASTEST, lastPeriodUs);
+    }
+
+    @Test
+    public void warmStartSeedNeverPostdatesBatchedSamples() {
+        create(PipelineConfig.SMOOTHING_TIME).start();
+        for (long t = 0; t < 10000; t += 1000) flush(t, 200, 1000f);
+        assertEquals(1000, pipeline.getLastSensorValue());
+
+        pipeline.resetForScreenOn();
+        clock.advanceTo(20000);
+        pipeline.start();
+        assertEquals("provisional from the seed", 1000, pipeline.getLastSensorValue());
+
+        // The first flush after the wake holds samples from before the seed was placed
+        clock.advanceTo(20200);
+        pipeline.beginBatch();
+        for (long t = 19000; t <= 20200; t += 200) {
+            pipeline.onSample(1100f, t);
+            int lux = pipeline.getLastSensorValue();
+            assertFalse("smoothed lux " + lux + " at " + t, lux < 1000 || lux > 1100);
+        }
+        pipeline.endBatch();
+        for (long t = 21200; t < 40000; t += 1000) {
+            flush(t - 1000, 200, 1100f);
+            int lux = pipeline.getLastSensorValue();
+            assertFalse("smoothed lux " + lux + " at " + t, lux < 1000 || lux > 1100);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Work mode changes published while the pipeline listens, with and without events arriving. */
+public class LuxPipelineModeTest {
+
+    private final VirtualClock clock = new VirtualClock(0);
+
+    private final SensorSource sensor = new SensorSource() {
+        @Override public boolean isAvailable() { return true; }
+        @Override public boolean hasFifo() { return false; }
+        @Override public void register(int samplingPeriodUs, int maxReportLatencyUs) { }
+        @Override public void unregister() { }
+    };
+
+    private LuxPipeline create(int mode) {
+        PipelineConfig config = new PipelineConfig();
+        config.mode = mode;
+        return new LuxPipeline(clock, clock, sensor, value -> { }, ConfigSnapshot.of(config), 255);
+    }
+
+    private static ConfigSnapshot mode(int mode) {
+        return settings(mode, 3000);
+    }
+
+    private static ConfigSnapshot settings(int mode, int windowMs) {
+        PipelineConfig config = new PipelineConfig();
+        config.mode = mode;
+        config.windowMs = windowMs;
+        return ConfigSnapshot.of(config);
+    }
+
+    @Test
+    public void switchToAlwaysInsideSuspendWindowKeepsListening() {
+        LuxPipeline pipeline = create(PipelineConfig.MODE_PORTRAIT);
+        pipeline.start();
+        assertTrue(pipeline.isListening());
+
+        // No event arrives between the switch and the suspend timer
+        clock.advanceBy(1000);
+        pipeline.publish(mode(PipelineConfig.MODE_ALWAYS));
+        clock.advanceBy(LuxPipeline.SUSPEND_MS * 4);
+        assertTrue(pipeline.isListening());
+    }
+
+    @Test
+    public void suspendStillStopsWithoutModeChange() {
+        LuxPipeline pipeline = create(PipelineConfig.MODE_PORTRAIT);
+        pipeline.start();
+        clock.advanceBy(1000);
+        pipeline.publish(settings(PipelineConfig.MODE_PORTRAIT, 4000));
+        clock.advanceBy(LuxPipeline.SUSPEND_MS);
+        assertFalse(pipeline.isListening());
+    }
+
+    @Test
+    public void switchToOtherOrientationStopsOnNextEvent() {
+        LuxPipeline pipeline = create(PipelineConfig.MODE_ALWAYS);
+        pipeline.setLandscape(true);
+        pipeline.start();
+        pipeline.onSample(100f, 200);
+
+        // Portrait-only while the device is in landscape: the next event turns listening off
+        pipeline.publish(mode(PipelineConfig.MODE_PORTRAIT));
+        clock.advanceBy(400);
+        pipeline.onSample(100f, 400);
+        assertFalse(pipeline.isListening());
+    }
+}
@@ -0,0 +1,128 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Replays the same screen-off/on cycles with warm start on and off, in "unlock" mode, and
+ * measures for every wake how long after the unlock the screen first shows the brightness
+ * the wake settles on. That is the time to the correct brightness, not to the first write,
+ * which a provisional value would satisfy trivially.
+ */
+public class LuxPipelineWarmStartTest {
+
+    private static final int WAKES = 300;
+    // Light sensors report their first sample this long after registration
+    private static final long FIRST_SAMPLE_MS = 180;
+    private static final long BURST_PERIOD_MS = 20;
+    private static final long SCREEN_ON_MS = 8000;
+    // Two steps of 255 count as correct: less than the sample noise moves the curve
+    private static final int TOLERANCE = 2;
+
+    @Test
+    public void warmStartReachesCorrectBrightnessSooner() {
+        long[] cold = replay(0);
+        long[] warm = replay(60000);
+
+        long coldSum = 0, warmSum = 0;
+        int faster = 0;
+        for (int i = 0; i < WAKES; i++) {
+            assertTrue("wake " + i + ": " + warm[i] + " ms warm vs " + cold[i] + " ms cold", warm[i] <= cold[i]);
+            coldSum += cold[i];
+            warmSum += warm[i];
+            if (warm[i] < cold[i]) faster++;
+        }
+        // Cold wakes wait for the first sample and the window; warm ones mostly start right
+        assertTrue("warm mean " + warmSum / WAKES + " ms, cold mean " + coldSum / WAKES + " ms",
+                warmSum * 2 < coldSum);
+        assertTrue(faster + " of " + WAKES + " wakes faster", faster > WAKES / 2);
+    }
+
+    @Test
+    public void unlockModeCapturesSeed() {
+        Cycle cycle = new Cycle(60000);
+        cycle.wake(1000, 500f, new Random(1));
+        int settled = cycle.values[cycle.writes - 1];
+        cycle.pipeline.resetForScreenOn();
+        cycle.clock.advanceBy(5000);
+
+        cycle.writes = 0;
+        cycle.pipeline.beginBurst();
+        cycle.pipeline.start();
+        assertEquals("provisional write at unlock", 1, cycle.writes);
+        assertEquals(settled, cycle.values[0]);
+    }
+
+    /** Time from each unlock to the correct brightness, in ms. */
+    private static long[] replay(int warmStartMs) {
+        Random light = new Random(17);
+        Random noise = new Random(23);
+        Cycle cycle = new Cycle(warmStartMs);
+        long[] out = new long[WAKES];
+        float level = 300f;
+        for (int i = 0; i < WAKES; i++) {
+            // Most wakes happen where the last one ended; some after moving somewhere else
+            if (light.nextInt(10) < 3) level = 5f + light.nextFloat() * 20000f;
+            long offMs = 5000 + light.nextInt(40000);
+            cycle.pipeline.resetForScreenOn();
+            cycle.clock.advanceBy(offMs);
+            out[i] = cycle.wake(SCREEN_ON_MS, level, noise);
+        }
+        return out;
+    }
+
+    private static final class Cycle implements SensorSource, BrightnessSink {
+        final VirtualClock clock = new VirtualClock(1000);
+        final LuxPipeline pipeline;
+        final int[] values = new int[512];
+        final long[] times = new long[512];
+        int writes = 0;
+
+        Cycle(int warmStartMs) {
+            PipelineConfig config = new PipelineConfig();
+            config.mode = PipelineConfig.MODE_UNLOCK;
+            config.warmStartMs = warmStartMs;
+            pipeline = new LuxPipeline(clock, clock, this, this, ConfigSnapshot.of(config), 255);
+        }
+
+        /**
+         * One unlock as LightControl does it, then samples at the burst rate while the
+         * pipeline listens and the screen stays on. Returns the time to the brightness the
+         * wake ends with, counted from the last write that reached it.
+         */
+        long wake(long screenOnMs, float level, Random noise) {
+            long unlock = clock.now();
+            writes = 0;
+            pipeline.beginBurst();
+            pipeline.start();
+            long t = unlock + FIRST_SAMPLE_MS;
+            while (t < unlock + screenOnMs && pipeline.isListening()) {
+                clock.advanceTo(t);
+                pipeline.onSample(level * (1f + (float) noise.nextGaussian() * 0.03f), t);
+                t += BURST_PERIOD_MS;
+            }
+            clock.advanceTo(unlock + screenOnMs);
+
+            int target = values[writes - 1];
+            int first = writes - 1;
+            while (first > 0 && Math.abs(values[first - 1] - target) <= TOLERANCE) first--;
+            return times[first] - unlock;
+        }
+
+        @Override public boolean isAvailable() { return true; }
+        @Override public boolean hasFifo() { return false; }
+        @Override public void register(int samplingPeriodUs, int maxReportLatencyUs) { }
+        @Override public void unregister() { }
+
+        @Override
+        public void write(int value) {
+            if (writes == values.length) return;
+            values[writes] = value;
+            times[writes++] = clock.now();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The constant-memory smoothers and the pass-through pre-filter on their own, and which
+ * stages the pipeline keeps or rebuilds when new settings are published.
+ */
+public class LuxStagesTest {
+
+    private final VirtualClock clock = new VirtualClock(0);
+
+    private final SensorSource sensor = new SensorSource() {
+        @Override public boolean isAvailable() { return true; }
+        @Override public boolean hasFifo() { return false; }
+        @Override public void register(int samplingPeriodUs, int maxReportLatencyUs) { }
+        @Override public void unregister() { }
+    };
+
+    private static ConfigSnapshot settings(int smoothingMode, int windowMs) {
+        PipelineConfig config = new PipelineConfig();
+        config.mode = PipelineConfig.MODE_ALWAYS;
+        config.smoothingMode = smoothingMode;
+        config.windowMs = windowMs;
+        config.preFilter = PipelineConfig.PREFILTER_NONE;
+        return ConfigSnapshot.of(config);
+    }
+
+    @Test
+    public void exponentialTimeConstantIsHalfTheWindow() {
+        // A constant input decays the gap by exp(-t / tau) however the samples are spaced
+        long[][] spacings = { { 100 }, { 20, 480 }, { 7, 130, 900, 1 } };
+        for (long[] gaps : spacings) {
+            ExponentialSmoother smoother = new ExponentialSmoother(settings(PipelineConfig.SMOOTHING_EXPONENTIAL, 3000));
+            smoother.filter(100f, 0);
+            long now = 0;
+            float out = 100f;
+            for (int i = 0; now < 1500; i++) {
+                now = Math.min(1500, now + gaps[i % gaps.length]);
+                out = smoother.filter(1100f, now);
+            }
+            assertEquals(100f + 1000f * (1f - (float) Math.exp(-1)), out, 0.01f);
+        }
+    }
+
+    @Test
+    public void exponentialConvergesAndFollowsConfigure() {
+        ExponentialSmoother smoother = new ExponentialSmoother(settings(PipelineConfig.SMOOTHING_EXPONENTIAL, 3000));
+        long now = 0;
+        smoother.filter(100f, now);
+        float out = 0f;
+        for (int i = 0; i < 100; i++) out = smoother.filter(500f, now += 200);
+        assertEquals(500f, out, 0.01f);
+        assertEquals(101, smoother.depth());
+
+        // A longer window slows it down from where it is, without dropping the level
+        smoother.configure(settings(PipelineConfig.SMOOTHING_EXPONENTIAL, 6000));
+        assertEquals(101, smoother.depth());
+        out = smoother.filter(1500f, now += 3000);
+        assertEquals(500f + 1000f * (1f - (float) Math.exp(-1)), out, 0.01f);
+    }
+
+    @Test
+    public void exponentialResetAndClear() {
+        ExponentialSmoother smoother = new ExponentialSmoother(settings(PipelineConfig.SMOOTHING_EXPONENTIAL, 3000));
+        smoother.filter(100f, 0);
+        smoother.filter(100f, 200);
+
+        smoother.reset(400, 800f);
+        assertEquals(1, smoother.depth());
+        assertEquals(800f, smoother.filter(800f, 600), 0f);
+
+        smoother.clear();
+        assertEquals(0, smoother.depth());
+        // Empty again: the next sample is taken as is
+        assertEquals(20f, smoother.filter(20f, 800), 0f);
+        assertEquals(1, smoother.depth());
+    }
+
+    @Test
+    public void kalmanSettledGainFollowsTheWindow() {
+        float fast = settledGain(3000);
+        float slow = settledGain(6000);
+        // At the reference rate the gain is about 200 ms over tau = window / 2
+        assertEquals(200f / 1500f, fast, 0.02f);
+        assertEquals(200f / 3000f, slow, 0.01f);
+        assertEquals(2f, fast / slow, 0.2f);
+    }
+
+    /** Fraction of a log-lux step the filter takes with the first sample after settling. */
+    private static float settledGain(int windowMs) {
+        KalmanSmoother smoother = new KalmanSmoother(settings(PipelineConfig.SMOOTHING_KALMAN, windowMs));
+        long now = 0;
+        for (int i = 0; i < 500; i++) smoother.filter(100f, now += 200);
+        float out = smoother.filter(1000f, now += 200);
+        return (float) ((Math.log1p(out) - Math.log1p(100)) / (Math.log1p(1000) - Math.log1p(100)));
+    }
+
+    @Test
+    public void kalmanConvergesAndKeepsItsLevelAcrossConfigure() {
+        KalmanSmoother smoother = new KalmanSmoother(settings(PipelineConfig.SMOOTHING_KALMAN, 3000));
+        long now = 0;
+        smoother.filter(50f, now);
+        float out = 0f;
+        for (int i = 0; i < 150; i++) out = smoother.filter(2000f, now += 200);
+        assertEquals(2000f, out, 2000f * 0.01f);
+
+        smoother.configure(settings(PipelineConfig.SMOOTHING_KALMAN, 6000));
+        assertEquals(151, smoother.depth());
+        assertEquals(out, smoother.filter(out, now += 200), out * 1e-4f);
+    }
+
+    @Test
+    public void kalmanResetAndClear() {
+        KalmanSmoother smoother = new KalmanSmoother(settings(PipelineConfig.SMOOTHING_KALMAN, 3000));
+        smoother.filter(100f, 0);
+        smoother.filter(100f, 200);
+
+        smoother.reset(400, 800f);
+        assertEquals(1, smoother.depth());
+        assertEquals(800f, smoother.filter(800f, 600), 800f * 1e-4f);
+
+        smoother.clear();
+        assertEquals(0, smoother.depth());
+        assertEquals(20f, smoother.filter(20f, 800), 0f);
+    }
+
+    @Test
+    public void passThroughChangesNothing() {
+        PassThroughStage stage = new PassThroughStage();
+        assertEquals(0, stage.depth());
+        assertEquals(12345.5f, stage.filter(12345.5f, 0), 0f);
+        assertEquals(0.25f, stage.filter(0.25f, 0), 0f);
+        assertEquals(1, stage.depth());
+
+        stage.configure(settings(PipelineConfig.SMOOTHING_COUNT, 6000));
+        assertEquals(7f, stage.filter(7f, 200), 0f);
+        stage.clear();
+        assertEquals(0, stage.depth());
+        stage.reset(400, 9f);
+        assertEquals(1, stage.depth());
+    }
+
+    // In the pipeline a step of 30% stays under quick react, so only the smoother decides
+
+    @Test
+    public void newWindowLengthKeepsTheSmoother() {
+        LuxPipeline pipeline = settled(PipelineConfig.SMOOTHING_EXPONENTIAL);
+        pipeline.publish(settings(PipelineConfig.SMOOTHING_EXPONENTIAL, 6000));
+        pipeline.onSample(130f, clock.now() + 200);
+        assertEquals(100, pipeline.getLastSensorValue());
+    }
+
+    @Test
+    public void countToTimeWeightingKeepsTheWindow() {
+        LuxPipeline pipeline = settled(PipelineConfig.SMOOTHING_COUNT);
+        pipeline.publish(settings(PipelineConfig.SMOOTHING_TIME, 3000));
+        pipeline.onSample(130f, clock.now() + 200);
+        assertEquals(100, pipeline.getLastSensorValue());
+    }
+
+    @Test
+    public void otherSmootherKindStartsEmpty() {
+        int[][] switches = {
+                { PipelineConfig.SMOOTHING_EXPONENTIAL, PipelineConfig.SMOOTHING_KALMAN },
+                { PipelineConfig.SMOOTHING_KALMAN, PipelineConfig.SMOOTHING_COUNT },
+                { PipelineConfig.SMOOTHING_TIME, PipelineConfig.SMOOTHING_EXPONENTIAL } };
+        for (int[] modes : switches) {
+            LuxPipeline pipeline = settled(modes[0]);
+            pipeline.publish(settings(modes[1], 3000));
+            // The new stage has nothing to average with, so the first sample goes through
+            pipeline.onSample(130f, clock.now() + 200);
+            assertEquals(modes[0] + " to " + modes[1], 130, pipeline.getLastSensorValue());
+        }
+    }
+
+    @Test
+    public void preFilterSwitchRebuildsOnlyOnAChangeOfKind() {
+        PipelineConfig median = new PipelineConfig();
+        median.mode = PipelineConfig.MODE_ALWAYS;
+        LuxPipeline pipeline = new LuxPipeline(clock, clock, sensor, value -> { }, ConfigSnapshot.of(median), 255);
+        pipeline.start();
+        long now = clock.now();
+        for (int i = 0; i < 20; i++) pipeline.onSample(100f, now += 200);
+
+        // A shorter median window keeps its samples: a lone spike is still voted down
+        median.medianWindowMs = 1000;
+        pipeline.publish(ConfigSnapshot.of(median));
+        pipeline.onSample(5000f, now += 200);
+        assertEquals(100f, pipeline.getFilteredLux(), 0f);
+
+        // No pre-filter at all: spikes pass straight through
+        median.preFilter = PipelineConfig.PREFILTER_NONE;
+        pipeline.publish(ConfigSnapshot.of(median));
+        pipeline.onSample(5000f, now += 200);
+        assertEquals(5000f, pipeline.getFilteredLux(), 0f);
+    }
+
+    /** A pipeline in "always" mode that has settled on 100 lux with the given smoothing. */
+    private LuxPipeline settled(int smoothingMode) {
+        LuxPipeline pipeline = new LuxPipeline(clock, clock, sensor, value -> { }, settings(smoothingMode, 3000), 255);
+        pipeline.start();
+        long now = clock.now();
+        for (int i = 0; i < 50; i++) pipeline.onSample(100f, now += 200);
+        clock.advanceTo(now);
+        assertEquals(100, pipeline.getLastSensorValue());
+        assertTrue(pipeline.isListening());
+        return pipeline;
+    }
+}
@@ -0,0 +1,75 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Once LuxWindow has grown to the window, ingesting a sample must not allocate: the
+ * per-thread allocation counter has to stand still over half a million events fed the
+ * way LightControl feeds them, quick-react snaps included. The best of a few rounds
+ * counts, so a one-off lazy initialisation elsewhere in the JVM cannot fail it.
+ */
+public class LuxWindowAllocationTest {
+
+    private static final int TRACE_LENGTH = 1 << 14;
+    private static final int WARMUP_EVENTS = 200_000;
+    private static final int MEASURED_EVENTS = 500_000;
+    private static final int ROUNDS = 3;
+    private static final long WINDOW_MS = 3000;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final long[] gaps = new long[TRACE_LENGTH];
+    private final float[] trace = new float[TRACE_LENGTH];
+    private long now = 0;
+    private float mean;
+
+    @Test
+    public void steadyStateAllocatesNothing() {
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Random rnd = new Random(7);
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            gaps[i] = 20 + rnd.nextInt(400);
+            trace[i] = 300f * (1f + (float) rnd.nextGaussian() * 0.1f);
+        }
+
+        LuxWindow window = new LuxWindow();
+        run(window, 0, WARMUP_EVENTS);
+
+        long id = Thread.currentThread().getId();
+        long overhead = threads.getThreadAllocatedBytes(id);
+        overhead = threads.getThreadAllocatedBytes(id) - overhead;
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && best > 0; round++) {
+            long before = threads.getThreadAllocatedBytes(id);
+            run(window, WARMUP_EVENTS + round * MEASURED_EVENTS, MEASURED_EVENTS);
+            long after = threads.getThreadAllocatedBytes(id);
+            best = Math.min(best, after - before - overhead);
+        }
+        assertEquals("bytes allocated by " + MEASURED_EVENTS + " events", 0L, best);
+    }
+
+    private void run(LuxWindow window, int from, int events) {
+        for (int i = from; i < from + events; i++) {
+            now += gaps[i & (TRACE_LENGTH - 1)];
+            float lux = trace[i & (TRACE_LENGTH - 1)];
+            // Every so often a sustained jump snaps the window, as quick react does
+            if ((i & 1023) == 0) {
+                window.reset(now, lux);
+            } else {
+                window.add(now, lux);
+                window.expire(now, WINDOW_MS);
+            }
+            mean = window.sum() / window.size();
+        }
+    }
+}
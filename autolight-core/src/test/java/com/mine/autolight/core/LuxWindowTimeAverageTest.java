@@ -0,0 +1,166 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * LuxWindow's running integral must give the same time-weighted mean as integrating the
+ * step function of the samples from scratch, each sample holding until the next one.
+ */
+public class LuxWindowTimeAverageTest {
+
+    @Test
+    public void matchesBruteForceIntegralOnUnevenSamples() {
+        Random rnd = new Random(11);
+        for (int trace = 0; trace < 200; trace++) {
+            long windowMs = 200 + rnd.nextInt(4000);
+            LuxWindow window = new LuxWindow();
+            StepIntegral oracle = new StepIntegral();
+
+            long now = rnd.nextInt(1000);
+            float level = 1f + rnd.nextFloat() * 1000f;
+            for (int i = 0; i < 3000; i++) {
+                // Bursts, regular rates, repeated timestamps and gaps longer than the window
+                int gap = rnd.nextInt(10);
+                now += (gap == 0) ? 0 : (gap < 7) ? rnd.nextInt(250) : rnd.nextInt((int) windowMs * 2);
+                if (rnd.nextInt(300) == 0) level = rnd.nextFloat() * 50000f;
+                float value = level * (1f + (float) rnd.nextGaussian() * 0.2f);
+
+                if (rnd.nextInt(500) == 0) {
+                    window.reset(now, value);
+                    oracle.clear();
+                } else {
+                    window.add(now, value);
+                    window.expire(now, windowMs);
+                }
+                oracle.add(now, value);
+
+                double expected = oracle.average(now, windowMs);
+                float actual = window.timeWeightedAverage(now, windowMs);
+                assertEquals("trace " + trace + ", event " + i, expected, actual, Math.abs(expected) * 1e-6 + 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void weightsEachSampleByItsHoldTime() {
+        LuxWindow window = new LuxWindow();
+        window.add(0, 10f);
+        window.add(900, 1000f);
+        window.expire(1000, 1000);
+
+        // The plain mean would be 505
+        assertEquals((10f * 900 + 1000f * 100) / 1000, window.timeWeightedAverage(1000, 1000), 1e-4f);
+    }
+
+    @Test
+    public void expiredSampleCoversTheStartOfTheWindow() {
+        LuxWindow window = new LuxWindow();
+        window.add(0, 100f);
+        window.add(2500, 10f);
+        window.expire(3000, 1000);
+
+        // 100 held from the window start at 2000 until 2500, then 10 until now
+        assertEquals(1, window.size());
+        assertEquals((100f * 500 + 10f * 500) / 1000, window.timeWeightedAverage(3000, 1000), 1e-4f);
+    }
+
+    @Test
+    public void partlyFilledWindowCoversOnlyTheTimeSinceTheFirstSample() {
+        LuxWindow window = new LuxWindow();
+        window.add(1000, 10f);
+        window.add(1200, 30f);
+        window.expire(1500, 3000);
+
+        assertEquals((10f * 200 + 30f * 300) / 500, window.timeWeightedAverage(1500, 3000), 1e-4f);
+    }
+
+    @Test
+    public void zeroSpanReturnsTheLastValue() {
+        LuxWindow window = new LuxWindow();
+        window.add(500, 42f);
+        window.expire(500, 3000);
+        assertEquals(42f, window.timeWeightedAverage(500, 3000), 0f);
+
+        window.add(500, 7f);
+        window.expire(500, 3000);
+        assertEquals(7f, window.timeWeightedAverage(500, 3000), 0f);
+    }
+
+    @Test
+    public void longRunDoesNotDrift() {
+        // Six hours of samples spanning eight decades, never letting the window run empty,
+        // so the running integral is only ever added to and subtracted from
+        final long windowMs = 10_000;
+        final long hours = 6;
+        Random rnd = new Random(3);
+        LuxWindow window = new LuxWindow();
+        StepIntegral oracle = new StepIntegral();
+
+        long now = 0;
+        long nextCheck = 3_600_000;
+        while (now < hours * 3_600_000) {
+            now += 1 + rnd.nextInt(400);
+            float value = (float) Math.pow(10, rnd.nextDouble() * 8 - 3);
+            window.add(now, value);
+            window.expire(now, windowMs);
+            oracle.add(now, value);
+            if (now >= nextCheck) {
+                double expected = oracle.average(now, windowMs);
+                assertEquals("after " + nextCheck / 3_600_000 + " h", expected,
+                        window.timeWeightedAverage(now, windowMs), expected * 1e-6);
+                nextCheck += 3_600_000;
+            }
+        }
+
+        // Hold a dim constant for two windows; the average has to come back to it
+        final float dim = 0.001f;
+        long stop = now + 2 * windowMs;
+        while (now < stop) {
+            now += 1 + rnd.nextInt(400);
+            window.add(now, dim);
+            window.expire(now, windowMs);
+        }
+        assertEquals(dim, window.timeWeightedAverage(now, windowMs), dim * 1e-6f);
+    }
+
+    /** Integrates the step function of every sample still relevant to the window. */
+    private static final class StepIntegral {
+        private final List<Long> times = new ArrayList<>();
+        private final List<Float> values = new ArrayList<>();
+
+        void add(long time, float value) {
+            times.add(time);
+            values.add(value);
+        }
+
+        void clear() {
+            times.clear();
+            values.clear();
+        }
+
+        double average(long now, long windowMs) {
+            long from = now - windowMs;
+            // Keep the newest sample at or before the window start; it covers that start
+            while (times.size() > 1 && times.get(1) <= from) {
+                times.remove(0);
+                values.remove(0);
+            }
+            long start = Math.max(from, times.get(0));
+            if (now - start <= 0) return values.get(values.size() - 1);
+
+            double total = 0;
+            for (int i = 0; i < times.size(); i++) {
+                long begin = Math.max(start, times.get(i));
+                long end = (i + 1 < times.size()) ? times.get(i + 1) : now;
+                if (end > begin) total += (double) values.get(i) * (end - begin);
+            }
+            return total / (now - start);
+        }
+    }
+}
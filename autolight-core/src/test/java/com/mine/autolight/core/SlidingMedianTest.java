@@ -0,0 +1,89 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** SlidingMedian must return exactly what the old sort-per-event median filter did. */
+public class SlidingMedianTest {
+
+    @Test
+    public void matchesSortingFilterOnRandomTraces() {
+        Random rnd = new Random(42);
+        for (int trace = 0; trace < 200; trace++) {
+            long windowMs = 200 + rnd.nextInt(4000);
+            SlidingMedian median = new SlidingMedian(windowMs);
+            SortingMedian oracle = new SortingMedian(windowMs);
+
+            long now = rnd.nextInt(1000);
+            float level = 1f + rnd.nextFloat() * 1000f;
+            for (int i = 0; i < 5000; i++) {
+                // Bursts, regular rates, long gaps and repeated timestamps
+                int gap = rnd.nextInt(10);
+                now += (gap == 0) ? 0 : (gap < 7) ? rnd.nextInt(250) : rnd.nextInt((int) windowMs * 2);
+                if (rnd.nextInt(300) == 0) level = rnd.nextFloat() * 50000f;
+                // Coarse values repeat, so equal keys are common
+                float value = (rnd.nextInt(4) == 0) ? Math.round(level) : level * (1f + (float) rnd.nextGaussian() * 0.2f);
+
+                if (rnd.nextInt(1000) == 0) {
+                    median.clear();
+                    oracle.clear();
+                }
+                float expected = oracle.filter(value, now);
+                float actual = median.filter(value, now);
+                assertEquals("trace " + trace + ", event " + i, Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+            }
+        }
+    }
+
+    @Test
+    public void followsWindowChanges() {
+        Random rnd = new Random(7);
+        SlidingMedian median = new SlidingMedian(2000);
+        SortingMedian oracle = new SortingMedian(2000);
+        long now = 0;
+        for (int i = 0; i < 20000; i++) {
+            if (i % 1000 == 0) {
+                long windowMs = 100 + rnd.nextInt(5000);
+                median.setWindowMs(windowMs);
+                oracle.windowDurationMs = windowMs;
+            }
+            now += rnd.nextInt(300);
+            float value = rnd.nextFloat() * 2000f;
+            assertEquals("event " + i, Float.floatToIntBits(oracle.filter(value, now)), Float.floatToIntBits(median.filter(value, now)));
+        }
+    }
+
+    /** The median filter SlidingMedian replaced, kept verbatim as the reference. */
+    private static class SortingMedian {
+        long windowDurationMs;
+        private final LinkedList<SensorReading> window = new LinkedList<>();
+
+        SortingMedian(long windowDurationMs) { this.windowDurationMs = windowDurationMs; }
+
+        float filter(float newValue, long currentTime) {
+            window.addLast(new SensorReading(currentTime, newValue));
+            while (!window.isEmpty() && (currentTime - window.peekFirst().time) > windowDurationMs) {
+                window.removeFirst();
+            }
+            List<Float> sortedValues = new ArrayList<>(window.size());
+            for (SensorReading reading : window) sortedValues.add(reading.value);
+            Collections.sort(sortedValues);
+            int middle = sortedValues.size() / 2;
+            return (sortedValues.size() % 2 == 1) ? sortedValues.get(middle) : (sortedValues.get(middle - 1) + sortedValues.get(middle)) / 2.0f;
+        }
+
+        void clear() { window.clear(); }
+    }
+
+    private static class SensorReading {
+        final long time; final float value;
+        SensorReading(long time, float value) { this.time = time; this.value = value; }
+    }
+}
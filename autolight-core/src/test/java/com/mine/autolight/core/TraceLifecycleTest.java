@@ -0,0 +1,246 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A trace carries the settings, the display maximum and every lifecycle call, so replaying
+ * it with nothing but the file reproduces what the device decided and wrote, in every work
+ * mode, through screen off/on cycles, unlock bursts, warm starts and orientation changes.
+ */
+public class TraceLifecycleTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void headerCarriesSettingsAndDisplayMaximum() throws IOException {
+        PipelineConfig config = new PipelineConfig();
+        config.mode = PipelineConfig.MODE_PORTRAIT;
+        config.curveLux = new int[] { 0, 50, 400, 3000, 90000 };
+        config.curvePercent = new int[] { 2, 10, 35, 70, 100 };
+        config.curveInterpolation = PipelineConfig.CURVE_MONOTONE;
+        config.smoothingMode = PipelineConfig.SMOOTHING_KALMAN;
+        config.quickReactEngine = PipelineConfig.QUICK_REACT_CHANGE_POINT;
+        config.preFilter = PipelineConfig.PREFILTER_NONE;
+        config.hysteresisThreshold = 0.2f;
+        config.medianWindowMs = 1500;
+        config.batchLatencyMs = 500;
+        config.adaptiveSampling = false;
+        config.warmStartMs = 30000;
+
+        Device device = new Device(config, 4095, tmp.newFolder());
+        device.pipeline.start();
+        device.samples(10, 100f);
+        File trace = device.finish();
+
+        try (LuxTraceReader in = new LuxTraceReader(trace)) {
+            assertTrue(in.hasLifecycle());
+            assertEquals(4095, in.displayMaximum());
+            PipelineConfig read = in.config();
+            assertEquals(config.mode, read.mode);
+            assertArrayEquals(config.curveLux, read.curveLux);
+            assertArrayEquals(config.curvePercent, read.curvePercent);
+            assertEquals(config.curveInterpolation, read.curveInterpolation);
+            assertEquals(config.smoothingMode, read.smoothingMode);
+            assertEquals(config.quickReactEngine, read.quickReactEngine);
+            assertEquals(config.preFilter, read.preFilter);
+            assertEquals(config.hysteresisThreshold, read.hysteresisThreshold, 0f);
+            assertEquals(config.medianWindowMs, read.medianWindowMs);
+            assertEquals(config.batchLatencyMs, read.batchLatencyMs);
+            assertEquals(config.adaptiveSampling, read.adaptiveSampling);
+            assertEquals(config.warmStartMs, read.warmStartMs);
+        }
+    }
+
+    @Test
+    public void replayReproducesDeviceInEveryMode() throws IOException {
+        int[] modes = { PipelineConfig.MODE_UNLOCK, PipelineConfig.MODE_ALWAYS,
+                PipelineConfig.MODE_PORTRAIT, PipelineConfig.MODE_LANDSCAPE };
+        for (int mode : modes) {
+            PipelineConfig config = new PipelineConfig();
+            config.mode = mode;
+            Device device = new Device(config, 1023, tmp.newFolder());
+            device.session(new Random(mode));
+            File trace = device.finish();
+
+            Recorded replay = new Recorded();
+            try (LuxTraceReader in = new LuxTraceReader(trace)) {
+                TraceReplayer.forTrace(in).replay(in, replay);
+            }
+            assertEquals("mode " + mode + " events", device.events, replay.events);
+            assertEquals("mode " + mode + " decisions that differ from the device", 0, replay.mismatches);
+            assertArrayEquals("mode " + mode + " write times", device.writes.times(), replay.writes.times());
+            assertArrayEquals("mode " + mode + " written values", device.writes.values(), replay.writes.values());
+            assertTrue("mode " + mode + " has warm starts", device.writes.count > replay.decisions);
+        }
+    }
+
+    @Test
+    public void settingsChangeStartsNewFile() throws IOException {
+        PipelineConfig config = new PipelineConfig();
+        config.mode = PipelineConfig.MODE_ALWAYS;
+        File dir = tmp.newFolder();
+        Device device = new Device(config, 255, dir);
+        device.pipeline.start();
+        device.samples(50, 300f);
+
+        config.windowMs = 5000;
+        device.pipeline.publish(ConfigSnapshot.of(config));
+        device.samples(50, 300f);
+        File newest = device.finish();
+
+        File older = new File(dir, "lux.1.bin");
+        try (LuxTraceReader in = new LuxTraceReader(older)) {
+            assertEquals(3000, in.config().windowMs);
+        }
+        try (LuxTraceReader in = new LuxTraceReader(newest)) {
+            assertEquals(5000, in.config().windowMs);
+            // Recorded mid-session: no start marker, so the first event starts the replay,
+            // though with windows empty where the device's were full
+            Recorded replay = new Recorded();
+            TraceReplayer.forTrace(in).replay(in, replay);
+            assertEquals(50, replay.events);
+            assertTrue(replay.decisions > 0);
+        }
+    }
+
+    @Test
+    public void versionOneTraceStillReplays() throws IOException {
+        File trace = new File(tmp.getRoot(), "v1.bin");
+        ByteBuffer buf = ByteBuffer.allocate(LuxTrace.V1_HEADER_BYTES + 10 * LuxTrace.RECORD_BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(LuxTrace.MAGIC).putShort((short) 1).putShort((short) LuxTrace.RECORD_BYTES);
+        for (int i = 0; i < 10; i++) buf.putLong(1000 + i * 200L).putFloat(250f).putFloat(250f).putInt(-1);
+        Files.write(trace.toPath(), buf.array());
+
+        try (LuxTraceReader in = new LuxTraceReader(trace)) {
+            assertFalse(in.hasLifecycle());
+            assertEquals(null, in.config());
+            Recorded replay = new Recorded();
+            TraceReplayer.forTrace(in).replay(in, replay);
+            assertEquals(10, replay.events);
+            assertTrue(replay.decisions > 0);
+        }
+    }
+
+    /** A pipeline driven the way LightService and LightControl drive it, with a recorder attached. */
+    private static final class Device implements SensorSource, BrightnessSink {
+        final VirtualClock clock = new VirtualClock(1000);
+        final LuxPipeline pipeline;
+        final LuxTraceRecorder recorder;
+        final File dir;
+        final Writes writes = new Writes();
+        int events = 0;
+        boolean landscape = false;
+
+        Device(PipelineConfig config, int displayMaximum, File dir) {
+            this.dir = dir;
+            pipeline = new LuxPipeline(clock, clock, this, this, ConfigSnapshot.of(config), displayMaximum);
+            recorder = new LuxTraceRecorder(dir, "lux", Long.MAX_VALUE, 3);
+            pipeline.setRecorder(recorder);
+        }
+
+        /** Wakes with screen off/on, unlocks, rotations and changing light. */
+        void session(Random rnd) {
+            float level = 200f;
+            pipeline.start();
+            samples(100, level);
+            for (int wake = 0; wake < 40; wake++) {
+                // Screen off, as LightService does it
+                pipeline.stop();
+                pipeline.resetForScreenOn();
+                clock.advanceBy(3000 + rnd.nextInt(30000));
+                if (rnd.nextInt(4) == 0) level = 5f + rnd.nextFloat() * 5000f;
+
+                // Screen on, with an unlock burst half of the time
+                if (rnd.nextBoolean()) pipeline.beginBurst();
+                pipeline.start();
+                samples(20 + rnd.nextInt(200), level);
+                if (rnd.nextInt(3) == 0) {
+                    pipeline.setLandscape(!landscape);
+                    landscape = !landscape;
+                    pipeline.start();
+                    samples(50, level * 1.5f);
+                }
+            }
+        }
+
+        /** Delivers {@code n} noisy samples at 200 ms while the pipeline listens. */
+        void samples(int n, float level) {
+            Random noise = new Random(n * 31L + (long) level);
+            for (int i = 0; i < n; i++) {
+                clock.advanceBy(200);
+                if (!pipeline.isListening()) continue;
+                pipeline.onSample(level * (1f + (float) noise.nextGaussian() * 0.05f), clock.now());
+                events++;
+            }
+        }
+
+        File finish() {
+            recorder.close();
+            return LuxTraceRecorder.currentFile(dir, "lux");
+        }
+
+        @Override public boolean isAvailable() { return true; }
+        @Override public boolean hasFifo() { return false; }
+        @Override public void register(int samplingPeriodUs, int maxReportLatencyUs) { }
+        @Override public void unregister() { }
+
+        @Override
+        public void write(int value) {
+            writes.add(clock.now(), value);
+        }
+    }
+
+    private static final class Recorded implements TraceReplayer.DecisionListener {
+        final Writes writes = new Writes();
+        int events = 0;
+        int decisions = 0;
+        int mismatches = 0;
+
+        @Override
+        public void onEvent(long timeMs, float rawLux, int recorded, int value) {
+            events++;
+            if (value != -1) decisions++;
+            if (value != recorded) mismatches++;
+        }
+
+        @Override
+        public void onWrite(long timeMs, int value) {
+            writes.add(timeMs, value);
+        }
+    }
+
+    private static final class Writes {
+        long[] times = new long[256];
+        int[] values = new int[256];
+        int count = 0;
+
+        void add(long time, int value) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            times[count] = time;
+            values[count++] = value;
+        }
+
+        long[] times() { return Arrays.copyOf(times, count); }
+        int[] values() { return Arrays.copyOf(values, count); }
+    }
+}
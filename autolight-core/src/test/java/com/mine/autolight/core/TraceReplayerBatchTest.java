@@ -0,0 +1,111 @@
+package com.mine.autolight.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Replaying a trace with a batch latency must decide exactly what the unbatched replay
+ * decides for every event, and write only the last decision of each FIFO flush.
+ */
+public class TraceReplayerBatchTest {
+
+    private static final int EVENTS = 20000;
+    private static final int BATCH_LATENCY_MS = 1000;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void batchedWritesAreTheLastDecisionOfEachFlush() throws IOException {
+        File trace = writeTrace(tmp.newFolder(), 3);
+
+        Replay plain = replay(trace, 0);
+        Replay batched = replay(trace, BATCH_LATENCY_MS);
+        assertArrayEquals("per-event decisions", plain.decisions, batched.decisions);
+
+        // Group the events into flushes the way the replayer's FIFO does
+        int[] expected = new int[EVENTS];
+        int n = 0;
+        int last = -1;
+        boolean open = false;
+        long due = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            if (open && plain.times[i] > due) {
+                if (last != -1) expected[n++] = last;
+                last = -1;
+                open = false;
+            }
+            if (!open) {
+                open = true;
+                due = plain.times[i] + BATCH_LATENCY_MS;
+            }
+            if (plain.decisions[i] != -1) last = plain.decisions[i];
+        }
+        if (last != -1) expected[n++] = last;
+
+        assertArrayEquals("batched writes", Arrays.copyOf(expected, n), Arrays.copyOf(batched.writes, batched.writeCount));
+        assertArrayEquals("unbatched writes", nonNegative(plain.decisions), Arrays.copyOf(plain.writes, plain.writeCount));
+        assertTrue("batching coalesces writes", batched.writeCount < plain.writeCount);
+    }
+
+    private static Replay replay(File trace, int batchLatencyMs) throws IOException {
+        PipelineConfig config = new PipelineConfig();
+        config.mode = PipelineConfig.MODE_ALWAYS;
+        config.batchLatencyMs = batchLatencyMs;
+        Replay out = new Replay();
+        try (LuxTraceReader in = new LuxTraceReader(trace)) {
+            new TraceReplayer(config, 255).replay(in, out);
+        }
+        return out;
+    }
+
+    private static final class Replay implements TraceReplayer.DecisionListener {
+        final long[] times = new long[EVENTS];
+        final int[] decisions = new int[EVENTS];
+        int events = 0;
+        int[] writes = new int[EVENTS];
+        int writeCount = 0;
+
+        @Override
+        public void onEvent(long timeMs, float rawLux, int recorded, int value) {
+            times[events] = timeMs;
+            decisions[events++] = value;
+        }
+
+        @Override
+        public void onWrite(long timeMs, int value) {
+            writes[writeCount++] = value;
+        }
+    }
+
+    private static int[] nonNegative(int[] values) {
+        int[] out = new int[values.length];
+        int n = 0;
+        for (int v : values) if (v != -1) out[n++] = v;
+        return Arrays.copyOf(out, n);
+    }
+
+    /** Indoor noise with room changes, sampled every 100 to 300 ms. */
+    static File writeTrace(File dir, long seed) {
+        Random rnd = new Random(seed);
+        LuxTraceRecorder recorder = new LuxTraceRecorder(dir, "lux", Long.MAX_VALUE, 1);
+        long now = 1000;
+        float level = 300f;
+        for (int i = 0; i < EVENTS; i++) {
+            if (i % 400 == 0) level = (rnd.nextInt(5) == 0) ? 1f : 20f + rnd.nextFloat() * 20000f;
+            now += 100 + rnd.nextInt(200);
+            recorder.record(now, Math.max(0f, level * (1f + (float) rnd.nextGaussian() * 0.1f)), 0f, -1);
+        }
+        recorder.close();
+        return LuxTraceRecorder.currentFile(dir, "lux");
+    }
+}